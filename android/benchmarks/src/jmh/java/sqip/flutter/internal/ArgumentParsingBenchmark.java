@@ -0,0 +1,43 @@
+package sqip.flutter.internal;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import sqip.BuyerAction;
+import sqip.Contact;
+import sqip.Money;
+import sqip.flutter.internal.VerificationArguments.InvalidArgumentException;
+
+@State(Scope.Thread)
+public class ArgumentParsingBenchmark {
+
+  private final Map<String, Object> moneyMap = Fixtures.moneyMap();
+  private final Map<String, Object> contactMap = Fixtures.contactMap();
+
+  @Benchmark
+  public Money moneyFromMap() throws InvalidArgumentException {
+    return VerificationArguments.toMoney(moneyMap.get("amount"), moneyMap.get("currencyCode"));
+  }
+
+  @Benchmark
+  public BuyerAction chargeFromMap() throws InvalidArgumentException {
+    return VerificationArguments.toBuyerAction("Charge", moneyFromMap());
+  }
+
+  @Benchmark
+  public Contact contactFromMap() throws InvalidArgumentException {
+    return VerificationArguments.toContact(
+        contactMap.get("givenName"),
+        contactMap.get("familyName"),
+        contactMap.get("addressLines"),
+        contactMap.get("city"),
+        contactMap.get("countryCode"),
+        contactMap.get("email"),
+        contactMap.get("phone"),
+        contactMap.get("postalCode"),
+        contactMap.get("region"));
+  }
+}
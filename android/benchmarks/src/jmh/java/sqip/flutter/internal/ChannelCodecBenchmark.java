@@ -0,0 +1,86 @@
+package sqip.flutter.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sqip.flutter.internal.converter.CardConverter;
+import sqip.flutter.internal.converter.CardDetailsConverter;
+
+/** Encodes results and decodes verification arguments the way the method channel does. */
+@State(Scope.Thread)
+public class ChannelCodecBenchmark {
+
+  private final CardDetailsConverter cardDetailsConverter = new CardDetailsConverter(new CardConverter());
+  private ByteBuffer mapArguments;
+  private ByteBuffer typedArguments;
+
+  @Setup
+  public void setUp() {
+    Map<String, Object> arguments = new LinkedHashMap<>();
+    arguments.put("buyerAction", "Charge");
+    arguments.put("money", Fixtures.moneyMap());
+    arguments.put("contact", Fixtures.contactMap());
+    arguments.put("squareLocationId", "LOCATION_ID");
+    mapArguments = StandardMessageCodec.INSTANCE.encodeMessage(arguments);
+    typedArguments = TypedArgumentWriter.INSTANCE.encodeMessage(arguments);
+  }
+
+  @Benchmark
+  public ByteBuffer encodeCardDetailsMap() {
+    return StandardMessageCodec.INSTANCE.encodeMessage(cardDetailsConverter.toMapObject(Fixtures.CARD_DETAILS));
+  }
+
+  @Benchmark
+  public Object decodeMapArguments() {
+    mapArguments.rewind();
+    return StandardMessageCodec.INSTANCE.decodeMessage(mapArguments);
+  }
+
+  @Benchmark
+  public Object decodeTypedArguments() {
+    typedArguments.rewind();
+    return VerificationArgumentCodec.INSTANCE.decodeMessage(typedArguments);
+  }
+
+  /**
+   * Writes the Money, Contact and buyer action arguments the way
+   * lib/src/verification_argument_codec.dart does.
+   */
+  private static final class TypedArgumentWriter extends StandardMessageCodec {
+    static final TypedArgumentWriter INSTANCE = new TypedArgumentWriter();
+
+    @Override
+    protected void writeValue(ByteArrayOutputStream stream, Object value) {
+      if (!(value instanceof Map) || !((Map<?, ?>) value).containsKey("buyerAction")) {
+        super.writeValue(stream, value);
+        return;
+      }
+      Map<?, ?> arguments = (Map<?, ?>) value;
+      Map<?, ?> money = (Map<?, ?>) arguments.get("money");
+      Map<?, ?> contact = (Map<?, ?>) arguments.get("contact");
+      stream.write(13); // StandardMessageCodec MAP
+      writeSize(stream, 3);
+      super.writeValue(stream, "buyerAction");
+      stream.write(130);
+      super.writeValue(stream, arguments.get("buyerAction"));
+      stream.write(128);
+      super.writeValue(stream, money.get("amount"));
+      super.writeValue(stream, money.get("currencyCode"));
+      super.writeValue(stream, "contact");
+      stream.write(129);
+      for (String key : new String[] {"givenName", "familyName", "addressLines", "city", "countryCode", "email", "phone", "postalCode", "region"}) {
+        super.writeValue(stream, contact.get(key));
+      }
+      super.writeValue(stream, "squareLocationId");
+      super.writeValue(stream, arguments.get("squareLocationId"));
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package sqip.flutter.internal;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import sqip.flutter.internal.converter.CardConverter;
+import sqip.flutter.internal.converter.CardDetailsConverter;
+import sqip.flutter.internal.converter.CompactCardDetailsEncoder;
+
+@State(Scope.Thread)
+public class ConverterBenchmark {
+
+  private final CardConverter cardConverter = new CardConverter();
+  private final CardDetailsConverter cardDetailsConverter = new CardDetailsConverter(cardConverter);
+  private final CompactCardDetailsEncoder compactEncoder = new CompactCardDetailsEncoder();
+
+  @Benchmark
+  public Map<String, Object> cardToMapObject() {
+    return cardConverter.toMapObject(Fixtures.CARD_DETAILS.getCard());
+  }
+
+  @Benchmark
+  public Map<String, Object> cardDetailsToMapObject() {
+    return cardDetailsConverter.toMapObject(Fixtures.CARD_DETAILS);
+  }
+
+  @Benchmark
+  public ByteBuffer cardDetailsToCompact() {
+    return compactEncoder.encode(
+        CompactCardDetailsEncoder.EVENT_CARD_ENTRY_DID_OBTAIN_CARD_DETAILS, Fixtures.CARD_DETAILS, "42", null, false);
+  }
+}
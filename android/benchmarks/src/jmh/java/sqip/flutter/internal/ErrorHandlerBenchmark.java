@@ -0,0 +1,37 @@
+package sqip.flutter.internal;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class ErrorHandlerBenchmark {
+
+  @Benchmark
+  public Map<String, String> callbackErrorObject() {
+    return ErrorHandlerUtils.getCallbackErrorObject(
+        "USAGE_ERROR", "Failed to launch Google Pay.", "fl_google_pay_result_error", "Failed to launch Google Pay.");
+  }
+
+  @Benchmark
+  public Map<String, String> debugErrorObject() {
+    return ErrorHandlerUtils.getDebugErrorObject("fl_google_pay_not_initialized", "Please initialize Google Pay.");
+  }
+
+  @Benchmark
+  public String pluginErrorMessage() {
+    return ErrorHandlerUtils.getPluginErrorMessage("fl_google_pay_not_initialized");
+  }
+
+  @Benchmark
+  public Map<String, String> catalogCallbackErrorObject() {
+    return ErrorCatalog.GOOGLE_PAY_RESULT_ERROR.callbackErrorObject();
+  }
+
+  @Benchmark
+  public String catalogPluginErrorMessage() {
+    return ErrorCatalog.pluginErrorMessage(ErrorCatalog.FL_GOOGLE_PAY_NOT_INITIALIZED);
+  }
+}
@@ -0,0 +1,39 @@
+package sqip.flutter.internal;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import sqip.Card;
+import sqip.CardDetails;
+
+/** Sample values shared by the benchmarks, shaped like a typical checkout. */
+final class Fixtures {
+
+  static final CardDetails CARD_DETAILS = new CardDetails(
+      "cnon:CBASEFRc3i7n4y0Xwzzn4zx7Pv4",
+      new Card(Card.Brand.VISA, "1111", 12, 2030, "94103", Card.Type.CREDIT, Card.PrepaidType.NOT_PREPAID));
+
+  private Fixtures() {}
+
+  static Map<String, Object> moneyMap() {
+    Map<String, Object> money = new LinkedHashMap<>();
+    money.put("amount", 100);
+    money.put("currencyCode", "USD");
+    return money;
+  }
+
+  static Map<String, Object> contactMap() {
+    Map<String, Object> contact = new LinkedHashMap<>();
+    contact.put("givenName", "John");
+    contact.put("familyName", "Doe");
+    contact.put("addressLines", Arrays.asList("London Eye", "Riverside Walk"));
+    contact.put("city", "London");
+    contact.put("countryCode", "GB");
+    contact.put("email", "johndoe@example.com");
+    contact.put("phone", "8001234567");
+    contact.put("postalCode", "SE1 7");
+    contact.put("region", "London");
+    return contact;
+  }
+}
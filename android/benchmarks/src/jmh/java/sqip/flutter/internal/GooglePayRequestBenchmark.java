@@ -0,0 +1,95 @@
+package sqip.flutter.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The JSON work behind one Google Pay tap. {@code rebuildRequest} builds the whole request the way
+ * GooglePay.createPaymentDataRequest does, which is what the plugin does. {@code patchRequest}
+ * adds the transaction info to the other fields, parsed once and cached, and
+ * {@code concatenateRequest} appends it to a cached JSON prefix. Every path then hands its JSON to
+ * PaymentDataRequest.fromJson, which is not measured here.
+ */
+@State(Scope.Thread)
+public class GooglePayRequestBenchmark {
+
+  private static final String LOCATION_ID = "LH2G4ZRD8PJKW";
+  private static final String PRICE = "12.34";
+  private static final String PRICE_STATUS = "FINAL";
+  private static final String CURRENCY_CODE = "USD";
+
+  private JSONObject withoutTransactionInfo;
+  private String[] names;
+  private String jsonPrefix;
+
+  @Setup
+  public void setUp() throws JSONException {
+    withoutTransactionInfo = new JSONObject(requestJson(LOCATION_ID, "0", "NOT_CURRENTLY_KNOWN", CURRENCY_CODE));
+    withoutTransactionInfo.remove("transactionInfo");
+    List<String> keys = new ArrayList<>();
+    for (Iterator<String> iterator = withoutTransactionInfo.keys(); iterator.hasNext(); ) {
+      keys.add(iterator.next());
+    }
+    names = keys.toArray(new String[0]);
+    String json = withoutTransactionInfo.toString();
+    jsonPrefix = json.substring(0, json.length() - 1) + ",\"transactionInfo\":";
+  }
+
+  @Benchmark
+  public String rebuildRequest() throws JSONException {
+    return requestJson(LOCATION_ID, PRICE, PRICE_STATUS, CURRENCY_CODE);
+  }
+
+  @Benchmark
+  public String patchRequest() throws JSONException {
+    return new JSONObject(withoutTransactionInfo, names)
+        .put("transactionInfo", transactionInfo(PRICE, PRICE_STATUS, CURRENCY_CODE))
+        .toString();
+  }
+
+  @Benchmark
+  public String concatenateRequest() {
+    return jsonPrefix
+        + "{\"totalPriceStatus\":\"" + PRICE_STATUS + "\",\"totalPrice\":" + JSONObject.quote(PRICE)
+        + ",\"currencyCode\":" + JSONObject.quote(CURRENCY_CODE) + "}}";
+  }
+
+  /** A card payment request tokenized by the Square gateway, as documented for Google Pay API v2. */
+  private static String requestJson(String locationId, String price, String priceStatus, String currencyCode)
+      throws JSONException {
+    JSONObject cardParameters = new JSONObject()
+        .put("allowedAuthMethods", new JSONArray().put("PAN_ONLY").put("CRYPTOGRAM_3DS"))
+        .put("allowedCardNetworks",
+            new JSONArray().put("AMEX").put("DISCOVER").put("JCB").put("MASTERCARD").put("VISA"));
+    JSONObject tokenizationSpecification = new JSONObject()
+        .put("type", "PAYMENT_GATEWAY")
+        .put("parameters", new JSONObject().put("gateway", "square").put("gatewayMerchantId", locationId));
+    JSONObject card = new JSONObject()
+        .put("type", "CARD")
+        .put("parameters", cardParameters)
+        .put("tokenizationSpecification", tokenizationSpecification);
+    return new JSONObject()
+        .put("apiVersion", 2)
+        .put("apiVersionMinor", 0)
+        .put("allowedPaymentMethods", new JSONArray().put(card))
+        .put("transactionInfo", transactionInfo(price, priceStatus, currencyCode))
+        .toString();
+  }
+
+  private static JSONObject transactionInfo(String price, String priceStatus, String currencyCode)
+      throws JSONException {
+    return new JSONObject()
+        .put("totalPriceStatus", priceStatus)
+        .put("totalPrice", price)
+        .put("currencyCode", currencyCode);
+  }
+}
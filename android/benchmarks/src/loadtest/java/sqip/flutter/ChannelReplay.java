@@ -0,0 +1,592 @@
+package sqip.flutter;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.plugin.common.StandardMethodCodec;
+import sqip.GooglePayNonceResult;
+import sqip.flutter.internal.ChannelRecorder;
+
+/**
+ * Replays a trace written by {@link ChannelRecorder} on one engine: each recorded call goes
+ * through {@link SquareInAppPaymentsFlutterPlugin#onMethodCall} or the background channel, against
+ * a fake {@link BinaryMessenger} and a {@link SimulatedPaymentsSdk} that ends every flow the way
+ * the recorded one ended. A call is sent once the plugin has sent as many events as it had before
+ * that call in the recording, then after the recorded think time divided by {@code --speed};
+ * {@code --speed=0} sends it as soon as the events are in. Correlation IDs in calls are mapped
+ * to those of the replayed card entries.
+ *
+ * <p>Reports latency percentiles per method, from sending a call to its result, and per event,
+ * from the last call sent to the event. {@code --out} writes them as tab-separated values, and
+ * {@code --baseline} compares them with those of an earlier replay, e.g. of the previous plugin
+ * version. Exits with status 1 if the replay diverged from the recording: the plugin did not send
+ * the recorded events in time, sent a different number of them, or a method failed a different
+ * number of times.
+ *
+ * <pre>
+ * gradle replay --args="--trace=/tmp/sqip_channel_traces/channel-1.sqtrace --speed=4 --out=after.tsv --baseline=before.tsv"
+ * </pre>
+ */
+public final class ChannelReplay {
+
+  private static final String BACKGROUND_CHANNEL = "square_in_app_payments/background";
+  private static final String EVENTS_CHANNEL = "square_in_app_payments/events";
+  private static final String CARD_DETAILS_EVENT = "cardEntryDidObtainCardDetails";
+
+  private static final Set<String> RECORDING_METHODS = new HashSet<>(Arrays.asList(
+      "startChannelRecording", "stopChannelRecording"));
+  private static final Set<String> CARD_SCREEN_FLOWS = new HashSet<>(Arrays.asList(
+      "startCardEntryFlow", "startGiftCardEntryFlow", "startCardEntryFlowWithBuyerVerification"));
+  private static final Set<String> OTHER_FLOWS = new HashSet<>(Arrays.asList(
+      "startBuyerVerificationFlow", "requestGooglePayNonce", "googlePayCheckout"));
+  // Errors a checkout reports before the token exchange.
+  private static final Set<String> CHECKOUT_START_ERRORS = new HashSet<>(Arrays.asList("USAGE_ERROR", "FAILED"));
+
+  private final String tracePath;
+  private final List<ChannelRecorder.Entry> entries;
+  private final double speed;
+  private final long gateTimeoutMs;
+  private final SimulatedPaymentsSdk sdk;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Activity activity = new Activity();
+  private final List<PluginRegistry.ActivityResultListener> activityResultListeners = new CopyOnWriteArrayList<>();
+  private final Map<String, BinaryMessenger.BinaryMessageHandler> handlers = new ConcurrentHashMap<>();
+  private final ExecutorService backgroundTaskQueue = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "replay-background-task-queue");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final SquareInAppPaymentsFlutterPlugin plugin;
+  private final List<String> recordedCorrelationIds = new ArrayList<>();
+  private final List<String> replayedCorrelationIds = new CopyOnWriteArrayList<>();
+  private final Object eventsLock = new Object();
+  private int replayedEvents;
+  private volatile long lastCallNanos;
+  private volatile String lastCallMethod;
+  private final AtomicInteger pendingCalls = new AtomicInteger();
+  private final Map<String, List<Long>> callLatencies = new ConcurrentHashMap<>();
+  private final Map<String, List<Long>> eventLatencies = new ConcurrentHashMap<>();
+  private final Map<String, Integer> recordedErrors = new TreeMap<>();
+  private final Map<String, AtomicInteger> replayedErrors = new ConcurrentHashMap<>();
+  private final List<String> divergences = new CopyOnWriteArrayList<>();
+
+  ChannelReplay(String tracePath, List<ChannelRecorder.Entry> entries, double speed, long gateTimeoutMs, long latencyMs) {
+    this.tracePath = tracePath;
+    this.entries = entries;
+    this.speed = speed;
+    this.gateTimeoutMs = gateTimeoutMs;
+    this.sdk = new SimulatedPaymentsSdk(new SimulatedPaymentsSdk.Profile(latencyMs, 0, 0), script(entries),
+        this::deliverActivityResult);
+    this.plugin = new SquareInAppPaymentsFlutterPlugin(sdk);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+      options.put(parts[0], parts.length > 1 ? parts[1] : "true");
+    }
+    String tracePath = options.get("trace");
+    if (tracePath == null) {
+      System.err.println("Usage: ChannelReplay --trace=<file> [--speed=1] [--latency-ms=2] [--gate-timeout-ms=5000]"
+          + " [--out=<tsv>] [--baseline=<tsv>]");
+      System.exit(2);
+    }
+    List<ChannelRecorder.Entry> entries;
+    try (InputStream in = new FileInputStream(tracePath)) {
+      entries = ChannelRecorder.read(in);
+    }
+    ChannelReplay replay = new ChannelReplay(tracePath, entries,
+        Double.parseDouble(options.getOrDefault("speed", "1")),
+        Long.parseLong(options.getOrDefault("gate-timeout-ms", "5000")),
+        Long.parseLong(options.getOrDefault("latency-ms", "2")));
+    boolean matched = replay.run(options.get("out"), options.get("baseline"));
+    System.exit(matched ? 0 : 1);
+  }
+
+  boolean run(String outPath, String baselinePath) throws Exception {
+    attach();
+    int recordedEvents = 0;
+    long lastRecordedMicros = 0;
+    int calls = 0;
+    long startNanos = System.nanoTime();
+    for (ChannelRecorder.Entry entry : entries) {
+      if (entry.kind == ChannelRecorder.EVENT) {
+        recordedEvents++;
+        lastRecordedMicros = entry.timeMicros;
+        String correlationId = correlationId(entry);
+        if (correlationId != null) {
+          recordedCorrelationIds.add(correlationId);
+        }
+        continue;
+      }
+      if (entry.kind == ChannelRecorder.ERROR && !RECORDING_METHODS.contains(entry.method)) {
+        recordedErrors.merge(entry.method, 1, Integer::sum);
+      }
+      if (!entry.isCall() || RECORDING_METHODS.contains(entry.method)) {
+        continue;
+      }
+      if (!awaitEvents(recordedEvents)) {
+        divergences.add(entry.method + " waited " + gateTimeoutMs + " ms for event " + recordedEvents);
+      }
+      long thinkMicros = entry.timeMicros - lastRecordedMicros;
+      lastRecordedMicros = entry.timeMicros;
+      if (speed > 0 && thinkMicros > 0) {
+        TimeUnit.MICROSECONDS.sleep((long) (thinkMicros / speed));
+      }
+      send(entry);
+      calls++;
+    }
+    if (!awaitEvents(recordedEvents)) {
+      divergences.add("waited " + gateTimeoutMs + " ms for event " + recordedEvents + " at the end");
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gateTimeoutMs);
+    while (pendingCalls.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    // Events the replay sends after the last recorded one would go unnoticed otherwise.
+    Thread.sleep(100);
+    int eventsSent;
+    synchronized (eventsLock) {
+      eventsSent = replayedEvents;
+    }
+    if (eventsSent != recordedEvents) {
+      divergences.add("sent " + eventsSent + " events, recorded " + recordedEvents);
+    }
+    if (pendingCalls.get() > 0) {
+      divergences.add(pendingCalls.get() + " calls never returned");
+    }
+    Set<String> erroringMethods = new HashSet<>(recordedErrors.keySet());
+    erroringMethods.addAll(replayedErrors.keySet());
+    for (String method : erroringMethods) {
+      int recorded = recordedErrors.getOrDefault(method, 0);
+      AtomicInteger replayed = replayedErrors.get(method);
+      if (recorded != (replayed != null ? replayed.get() : 0)) {
+        divergences.add(method + " failed " + (replayed != null ? replayed.get() : 0) + " times, recorded " + recorded);
+      }
+    }
+    detach();
+
+    Map<String, long[]> rows = new TreeMap<>();
+    addRows(rows, "call", callLatencies);
+    addRows(rows, "event", eventLatencies);
+    long recordedMicros = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).timeMicros;
+    System.out.printf("replayed %d calls and %d events of %s at speed %s in %.2f s (recorded %.2f s)%n", calls, eventsSent,
+        tracePath, speed, elapsedNanos / 1e9, recordedMicros / 1e6);
+    report(rows, baselinePath != null ? readRows(baselinePath) : null);
+    if (outPath != null) {
+      writeRows(rows, outPath);
+    }
+    System.out.println("divergences: " + (divergences.isEmpty() ? "none" : divergences));
+    return divergences.isEmpty();
+  }
+
+  private void attach() {
+    CompletableFuture<Void> attached = new CompletableFuture<>();
+    mainHandler.post(() -> {
+      plugin.onAttachedToEngine(activity.getApplicationContext(), fakeMessenger());
+      plugin.onAttachedToActivity(fakeActivityBinding());
+      handlers.get(EVENTS_CHANNEL).onMessage(
+          PluginLoadTest.readable(StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall("listen", null))), reply -> {});
+      attached.complete(null);
+    });
+    attached.join();
+  }
+
+  private void detach() {
+    CompletableFuture<Void> detached = new CompletableFuture<>();
+    mainHandler.post(() -> {
+      plugin.onDetachedFromActivity();
+      plugin.onDetachedFromEngine();
+      detached.complete(null);
+    });
+    detached.join();
+    backgroundTaskQueue.shutdownNow();
+    sdk.shutdown();
+  }
+
+  private void send(ChannelRecorder.Entry entry) {
+    String method = entry.method;
+    Object arguments = withReplayedCorrelationId(entry.arguments);
+    pendingCalls.incrementAndGet();
+    long sentNanos = System.nanoTime();
+    lastCallNanos = sentNanos;
+    lastCallMethod = method;
+    TimedResult result = new TimedResult(method, sentNanos);
+    if (entry.kind == ChannelRecorder.MAIN_CALL) {
+      mainHandler.post(() -> plugin.onMethodCall(new MethodCall(method, arguments), result));
+      return;
+    }
+    ByteBuffer message = PluginLoadTest.readable(StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall(method, arguments)));
+    backgroundTaskQueue.execute(() -> handlers.get(BACKGROUND_CHANNEL).onMessage(message, reply -> {
+      try {
+        result.success(StandardMethodCodec.INSTANCE.decodeEnvelope(PluginLoadTest.readable(reply)));
+      } catch (RuntimeException e) {
+        result.error(e.toString(), null, null);
+      }
+    }));
+  }
+
+  /** Replaces a recorded correlation ID with that of the same card entry in the replay, or null if there is none. */
+  private Object withReplayedCorrelationId(Object arguments) {
+    if (!(arguments instanceof Map) || !(((Map<?, ?>) arguments).get("correlationId") instanceof String)) {
+      return arguments;
+    }
+    Map<Object, Object> mapped = new LinkedHashMap<>((Map<?, ?>) arguments);
+    int index = recordedCorrelationIds.indexOf(mapped.get("correlationId"));
+    mapped.put("correlationId", index >= 0 && index < replayedCorrelationIds.size() ? replayedCorrelationIds.get(index) : null);
+    return mapped;
+  }
+
+  private boolean awaitEvents(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gateTimeoutMs);
+    synchronized (eventsLock) {
+      while (replayedEvents < count) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMs <= 0) {
+          return false;
+        }
+        eventsLock.wait(remainingMs);
+      }
+    }
+    return true;
+  }
+
+  /** Records one batch of flow events. Runs on the main thread. */
+  private void onEvents(ByteBuffer message) {
+    long receivedNanos = System.nanoTime();
+    List<?> batch = (List<?>) StandardMethodCodec.INSTANCE.decodeEnvelope(PluginLoadTest.readable(message));
+    for (Object item : batch) {
+      List<?> event = (List<?>) item;
+      String method = (String) event.get(1);
+      String afterMethod = lastCallMethod;
+      if (afterMethod != null) {
+        latencies(eventLatencies, method + " after " + afterMethod).add(receivedNanos - lastCallNanos);
+      }
+      if (CARD_DETAILS_EVENT.equals(method) && event.get(2) instanceof Map
+          && ((Map<?, ?>) event.get(2)).get("correlationId") instanceof String) {
+        replayedCorrelationIds.add((String) ((Map<?, ?>) event.get(2)).get("correlationId"));
+      }
+    }
+    synchronized (eventsLock) {
+      replayedEvents += batch.size();
+      eventsLock.notifyAll();
+    }
+  }
+
+  private void deliverActivityResult(Activity target, int requestCode, int resultCode, Intent data) {
+    mainHandler.post(() -> {
+      if (target == activity) {
+        for (PluginRegistry.ActivityResultListener listener : activityResultListeners) {
+          listener.onActivityResult(requestCode, resultCode, data);
+        }
+      }
+    });
+  }
+
+  private static String correlationId(ChannelRecorder.Entry entry) {
+    if (CARD_DETAILS_EVENT.equals(entry.method) && entry.arguments instanceof Map) {
+      Object correlationId = ((Map<?, ?>) entry.arguments).get("correlationId");
+      return correlationId instanceof String ? (String) correlationId : null;
+    }
+    return null;
+  }
+
+  /**
+   * The outcome of every recorded flow, in the order the SDK is asked for them. Flows run one at a
+   * time on one engine, so the events between the start of a flow and the start of the next are
+   * that flow's; the card and nonce events may be compact and unreadable, but the cancellations
+   * and failures the SDK has to reproduce never are.
+   */
+  private static SimulatedPaymentsSdk.Outcomes script(List<ChannelRecorder.Entry> entries) {
+    ScriptedOutcomes outcomes = new ScriptedOutcomes();
+    FlowWindow window = null;
+    for (ChannelRecorder.Entry entry : entries) {
+      if (entry.isCall() && (CARD_SCREEN_FLOWS.contains(entry.method) || OTHER_FLOWS.contains(entry.method))) {
+        if (window != null) {
+          window.close(outcomes);
+        }
+        window = new FlowWindow(entry.method);
+      } else if (window != null && entry.kind == ChannelRecorder.EVENT) {
+        window.onEvent(entry.method, outcomes);
+      } else if (window != null && "googlePayCheckout".equals(entry.method)
+          && (entry.kind == ChannelRecorder.SUCCESS || entry.kind == ChannelRecorder.ERROR)) {
+        window.onCheckoutResult(entry, outcomes);
+      }
+    }
+    if (window != null) {
+      window.close(outcomes);
+    }
+    return outcomes;
+  }
+
+  private static final class FlowWindow {
+    final String method;
+    boolean sawEvent;
+    boolean cardCanceled;
+    boolean verificationFailed;
+    String lastEvent;
+
+    FlowWindow(String method) {
+      this.method = method;
+    }
+
+    void onEvent(String event, ScriptedOutcomes outcomes) {
+      if (CARD_SCREEN_FLOWS.contains(method) && !sawEvent) {
+        cardCanceled = "cardEntryCancel".equals(event);
+        outcomes.cancelCardEntry.add(cardCanceled);
+      }
+      if ("requestGooglePayNonce".equals(method) && !sawEvent) {
+        boolean canceled = "onGooglePayCanceled".equals(event);
+        outcomes.cancelGooglePay.add(canceled);
+        if (!canceled) {
+          outcomes.failNonceExchange.add("onGooglePayNonceRequestFailure".equals(event));
+        }
+      }
+      verificationFailed |= "onBuyerVerificationError".equals(event);
+      sawEvent = true;
+      lastEvent = event;
+    }
+
+    void onCheckoutResult(ChannelRecorder.Entry result, ScriptedOutcomes outcomes) {
+      if (result.kind == ChannelRecorder.SUCCESS) {
+        outcomes.cancelGooglePay.add(result.arguments == null);
+        if (result.arguments != null) {
+          outcomes.failNonceExchange.add(false);
+        }
+      } else if (!CHECKOUT_START_ERRORS.contains(((Map<?, ?>) result.arguments).get("errorCode"))) {
+        outcomes.cancelGooglePay.add(false);
+        outcomes.failNonceExchange.add(true);
+      }
+    }
+
+    void close(ScriptedOutcomes outcomes) {
+      // Verification runs once the card is entered and accepted, or on its own.
+      boolean verified = "startBuyerVerificationFlow".equals(method)
+          || ("startCardEntryFlowWithBuyerVerification".equals(method) && !cardCanceled && !"cardEntryCancel".equals(lastEvent));
+      if (sawEvent && verified) {
+        outcomes.failVerification.add(verificationFailed);
+      }
+    }
+  }
+
+  /** Plays back scripted outcomes; a flow with none left succeeds. */
+  private static final class ScriptedOutcomes implements SimulatedPaymentsSdk.Outcomes {
+    final ConcurrentLinkedQueue<Boolean> cancelCardEntry = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<Boolean> failVerification = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<Boolean> cancelGooglePay = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<Boolean> failNonceExchange = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public boolean cancelCardEntry() {
+      return Boolean.TRUE.equals(cancelCardEntry.poll());
+    }
+
+    @Override
+    public boolean failVerification() {
+      return Boolean.TRUE.equals(failVerification.poll());
+    }
+
+    @Override
+    public boolean cancelGooglePay() {
+      return Boolean.TRUE.equals(cancelGooglePay.poll());
+    }
+
+    @Override
+    public GooglePayNonceResult.Error.Code failNonceExchange() {
+      // Not retried, so the flow fails once, as recorded.
+      return Boolean.TRUE.equals(failNonceExchange.poll()) ? GooglePayNonceResult.Error.Code.USAGE_ERROR : null;
+    }
+  }
+
+  /** Times a replayed call from sending it to its result. */
+  private final class TimedResult implements MethodChannel.Result {
+    private final String method;
+    private final long sentNanos;
+
+    TimedResult(String method, long sentNanos) {
+      this.method = method;
+      this.sentNanos = sentNanos;
+    }
+
+    @Override
+    public void success(Object result) {
+      latencies(callLatencies, method).add(System.nanoTime() - sentNanos);
+      pendingCalls.decrementAndGet();
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+      latencies(callLatencies, method).add(System.nanoTime() - sentNanos);
+      replayedErrors.computeIfAbsent(method, key -> new AtomicInteger()).incrementAndGet();
+      pendingCalls.decrementAndGet();
+    }
+
+    @Override
+    public void notImplemented() {
+      error("notImplemented", null, null);
+    }
+  }
+
+  private static List<Long> latencies(Map<String, List<Long>> byName, String name) {
+    return byName.computeIfAbsent(name, key -> Collections.synchronizedList(new ArrayList<>()));
+  }
+
+  /** Adds {@code count, p50, p95} in microseconds per name, keyed by kind and name. */
+  private static void addRows(Map<String, long[]> rows, String kind, Map<String, List<Long>> byName) {
+    for (Map.Entry<String, List<Long>> entry : byName.entrySet()) {
+      List<Long> samples;
+      synchronized (entry.getValue()) {
+        samples = new ArrayList<>(entry.getValue());
+      }
+      Collections.sort(samples);
+      rows.put(kind + "\t" + entry.getKey(), new long[] {
+          samples.size(), percentileMicros(samples, 0.50), percentileMicros(samples, 0.95) });
+    }
+  }
+
+  private static long percentileMicros(List<Long> sortedNanos, double percentile) {
+    int index = (int) Math.ceil(percentile * sortedNanos.size()) - 1;
+    return sortedNanos.get(Math.max(0, index)) / 1_000;
+  }
+
+  private static void report(Map<String, long[]> rows, Map<String, long[]> baseline) {
+    int width = 4;
+    for (String key : rows.keySet()) {
+      width = Math.max(width, key.length() - key.indexOf('\t') - 1);
+    }
+    String name = "%-5s %-" + width + "s";
+    if (baseline == null) {
+      System.out.printf(name + " %7s %8s %8s%n", "kind", "name", "count", "p50 ms", "p95 ms");
+    } else {
+      System.out.printf(name + " %7s %8s %8s %8s %8s %8s %8s%n", "kind", "name", "count", "p50 ms", "base", "delta",
+          "p95 ms", "base", "delta");
+    }
+    for (Map.Entry<String, long[]> row : rows.entrySet()) {
+      String[] key = row.getKey().split("\t", 2);
+      long[] values = row.getValue();
+      long[] base = baseline != null ? baseline.get(row.getKey()) : null;
+      if (baseline == null) {
+        System.out.printf(name + " %7d %8.2f %8.2f%n", key[0], key[1], values[0], values[1] / 1e3, values[2] / 1e3);
+      } else if (base == null) {
+        System.out.printf(name + " %7d %8.2f %8s %8s %8.2f %8s %8s%n", key[0], key[1], values[0], values[1] / 1e3, "-", "new",
+            values[2] / 1e3, "-", "new");
+      } else {
+        System.out.printf(name + " %7d %8.2f %8.2f %8s %8.2f %8.2f %8s%n", key[0], key[1], values[0], values[1] / 1e3,
+            base[1] / 1e3, delta(values[1], base[1]), values[2] / 1e3, base[2] / 1e3, delta(values[2], base[2]));
+      }
+    }
+    if (baseline != null) {
+      for (String key : baseline.keySet()) {
+        if (!rows.containsKey(key)) {
+          System.out.println("only in the baseline: " + key.replace('\t', ' '));
+        }
+      }
+    }
+  }
+
+  private static String delta(long value, long base) {
+    return base == 0 ? "-" : String.format("%+.0f%%", 100.0 * (value - base) / base);
+  }
+
+  private static void writeRows(Map<String, long[]> rows, String path) throws IOException {
+    try (PrintWriter out = new PrintWriter(path, "UTF-8")) {
+      out.println("kind\tname\tcount\tp50_us\tp95_us");
+      for (Map.Entry<String, long[]> row : rows.entrySet()) {
+        long[] values = row.getValue();
+        out.println(row.getKey() + "\t" + values[0] + "\t" + values[1] + "\t" + values[2]);
+      }
+    }
+  }
+
+  private static Map<String, long[]> readRows(String path) throws IOException {
+    Map<String, long[]> rows = new TreeMap<>();
+    try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+      in.readLine();
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        String[] fields = line.split("\t");
+        rows.put(fields[0] + "\t" + fields[1], new long[] {
+            Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]) });
+      }
+    }
+    return rows;
+  }
+
+  private BinaryMessenger fakeMessenger() {
+    return (BinaryMessenger) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { BinaryMessenger.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "setMessageHandler":
+              String channel = (String) args[0];
+              if (args[1] == null) {
+                handlers.remove(channel);
+              } else {
+                handlers.put(channel, (BinaryMessenger.BinaryMessageHandler) args[1]);
+              }
+              return null;
+            case "send":
+              if (EVENTS_CHANNEL.equals(args[0])) {
+                onEvents((ByteBuffer) args[1]);
+              }
+              return null;
+            case "makeBackgroundTaskQueue":
+              return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { BinaryMessenger.TaskQueue.class },
+                  (queue, queueMethod, queueArgs) -> PluginLoadTest.objectMethod(queue, queueMethod.getName(), queueArgs));
+            default:
+              return PluginLoadTest.objectMethod(proxy, method.getName(), args);
+          }
+        });
+  }
+
+  private ActivityPluginBinding fakeActivityBinding() {
+    return (ActivityPluginBinding) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ActivityPluginBinding.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getActivity":
+              return activity;
+            case "addActivityResultListener":
+              activityResultListeners.add((PluginRegistry.ActivityResultListener) args[0]);
+              return null;
+            case "removeActivityResultListener":
+              activityResultListeners.remove(args[0]);
+              return null;
+            default:
+              return PluginLoadTest.objectMethod(proxy, method.getName(), args);
+          }
+        });
+  }
+}
@@ -0,0 +1,625 @@
+package sqip.flutter;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.plugin.common.StandardMethodCodec;
+import sqip.flutter.internal.ChannelRecorder;
+import sqip.flutter.internal.FlightRecorder;
+
+/**
+ * Drives card entry, buyer verification, Google Pay and Google Pay checkout flows through
+ * {@link SquareInAppPaymentsFlutterPlugin#onMethodCall} against a {@link SimulatedPaymentsSdk}
+ * and a fake {@link BinaryMessenger}, playing the Dart side from the events the plugin sends. Each
+ * engine runs its flows one after another, as a single app would; engines run in parallel and
+ * share one SDK, as they do in a process. The SDK shows one card or Google Pay screen at a time,
+ * so engines take turns per screen. With {@code --shared-activity} every engine is attached to the
+ * same activity and sees every activity result, as engines of a FlutterEngineGroup do. With
+ * {@code --accept-natively} a card acceptance rule accepts every simulated card, so card entry
+ * finishes without waiting for completeCardEntry.
+ *
+ * <p>Reports throughput, latency percentiles per flow, flows that never finished, events delivered
+ * to an engine with no flow in progress, listeners left registered and threads left running after
+ * teardown. With {@code --trace} the plugin's trace sections are turned on and async slices left
+ * open are reported too. With {@code --record} the channel traffic of the run is recorded to a
+ * trace that {@link ChannelReplay} can replay; record with one engine, as replay drives one.
+ * Exits with status 1 if any flow got stuck, an event was misrouted, a call
+ * failed, a thread leaked, a trace slice was left open or the flight recorder holds card data.
+ *
+ * <pre>
+ * gradle loadTest --args="--flows=3000 --engines=4 --shared-activity --latency-ms=2 --failure-rate=0.05 --cancel-rate=0.05 --trace"
+ * </pre>
+ */
+public final class PluginLoadTest {
+
+  private static final String BACKGROUND_CHANNEL = "square_in_app_payments/background";
+  private static final String EVENTS_CHANNEL = "square_in_app_payments/events";
+
+  private static final List<String> TERMINAL_EVENTS = Arrays.asList(
+      "cardEntryComplete", "cardEntryCancel", "onBuyerVerificationSuccess", "onBuyerVerificationError",
+      "onGooglePayNonceRequestSuccess", "onGooglePayNonceRequestFailure", "onGooglePayCanceled");
+
+  // Process-wide pools the plugin starts once and keeps; anything else still running is a leak.
+  private static final Map<String, Integer> SHARED_PLUGIN_THREADS = new LinkedHashMap<>();
+
+  static {
+    SHARED_PLUGIN_THREADS.put("sqip-flutter-nonce-exchange", 2);
+    SHARED_PLUGIN_THREADS.put("sqip-flutter-nonce-exchange-deadline", 1);
+    SHARED_PLUGIN_THREADS.put("sqip-flutter-activity-result", 1);
+    SHARED_PLUGIN_THREADS.put("sqip-flutter-background", 1);
+  }
+
+  enum Flow {
+    CARD_ENTRY("cardEntry"),
+    BUYER_VERIFICATION("buyerVerification"),
+    GOOGLE_PAY("googlePay"),
+    GOOGLE_PAY_CHECKOUT("googlePayCheckout");
+
+    final String key;
+
+    Flow(String key) {
+      this.key = key;
+    }
+
+    /** Card entry with buyer verification starts with the card entry screen. */
+    boolean usesCardScreen() {
+      return this != GOOGLE_PAY && this != GOOGLE_PAY_CHECKOUT;
+    }
+  }
+
+  private final int flows;
+  private final int engines;
+  private final long flowTimeoutMs;
+  private final boolean trace;
+  private final SimulatedPaymentsSdk.Profile profile;
+  private final SimulatedPaymentsSdk sdk;
+  private final Activity sharedActivity;
+  private final boolean acceptNatively;
+  private final boolean record;
+  private final List<Engine> attached = new CopyOnWriteArrayList<>();
+  private final Semaphore cardScreen = new Semaphore(1, true);
+  private final Semaphore googlePayScreen = new Semaphore(1, true);
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Map<Flow, List<Long>> latencies = new ConcurrentHashMap<>();
+  private final Map<Flow, Map<String, AtomicLong>> outcomes = new ConcurrentHashMap<>();
+  private final AtomicLong stuckFlows = new AtomicLong();
+  private final AtomicLong misroutedEvents = new AtomicLong();
+  private final AtomicLong callErrors = new AtomicLong();
+
+  PluginLoadTest(int flows, int engines, long flowTimeoutMs, boolean trace, boolean sharedActivity,
+      boolean acceptNatively, boolean record, SimulatedPaymentsSdk.Profile profile) {
+    this.flows = flows;
+    this.engines = engines;
+    this.flowTimeoutMs = flowTimeoutMs;
+    this.trace = trace;
+    this.profile = profile;
+    this.sdk = new SimulatedPaymentsSdk(profile, this::deliverActivityResult);
+    this.sharedActivity = sharedActivity ? new Activity() : null;
+    this.acceptNatively = acceptNatively;
+    this.record = record;
+    for (Flow flow : Flow.values()) {
+      latencies.put(flow, Collections.synchronizedList(new ArrayList<>()));
+      outcomes.put(flow, new ConcurrentHashMap<>());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+      options.put(parts[0], parts.length > 1 ? parts[1] : "true");
+    }
+    long latencyMs = Long.parseLong(options.getOrDefault("latency-ms", "2"));
+    PluginLoadTest loadTest = new PluginLoadTest(
+        Integer.parseInt(options.getOrDefault("flows", "3000")),
+        Integer.parseInt(options.getOrDefault("engines", "1")),
+        Long.parseLong(options.getOrDefault("flow-timeout-ms", String.valueOf(5_000 + 20 * latencyMs))),
+        Boolean.parseBoolean(options.getOrDefault("trace", "false")),
+        Boolean.parseBoolean(options.getOrDefault("shared-activity", "false")),
+        Boolean.parseBoolean(options.getOrDefault("accept-natively", "false")),
+        Boolean.parseBoolean(options.getOrDefault("record", "false")),
+        new SimulatedPaymentsSdk.Profile(
+            latencyMs,
+            Double.parseDouble(options.getOrDefault("failure-rate", "0.05")),
+            Double.parseDouble(options.getOrDefault("cancel-rate", "0.05"))));
+    System.exit(loadTest.run() ? 0 : 1);
+  }
+
+  boolean run() throws Exception {
+    Set<Thread> threadsBefore = Thread.getAllStackTraces().keySet();
+    if (record) {
+      // Started before the engines attach, so the trace has their setup calls too.
+      CompletableFuture<Object> path = new CompletableFuture<>();
+      ChannelRecorder.start(new FutureResult(path), new Activity().getCacheDir(), ChannelRecorder.DEFAULT_MAX_BYTES);
+      System.out.println("recording to " + path.get());
+    }
+
+    List<Engine> started = new ArrayList<>();
+    for (int i = 0; i < engines; i++) {
+      Engine engine = new Engine();
+      engine.attach();
+      started.add(engine);
+    }
+
+    long startNanos = System.nanoTime();
+    List<Thread> drivers = new ArrayList<>();
+    for (int i = 0; i < engines; i++) {
+      Engine engine = started.get(i);
+      int share = flows / engines + (i < flows % engines ? 1 : 0);
+      Thread driver = new Thread(() -> engine.runFlows(share), "loadtest-engine-" + i);
+      driver.start();
+      drivers.add(driver);
+    }
+    for (Thread driver : drivers) {
+      driver.join();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    if (record) {
+      CompletableFuture<Object> recording = new CompletableFuture<>();
+      ChannelRecorder.stop(new FutureResult(recording));
+      System.out.println("recorded " + recording.get());
+    }
+    List<String> recorderProblems = checkFlightRecorder();
+
+    int listenersLeft = 0;
+    for (Engine engine : started) {
+      engine.detach();
+      listenersLeft += engine.activityResultListeners.size();
+    }
+    sdk.shutdown();
+    // Let cancelled timers and exiting pool threads settle before looking for leaks.
+    Thread.sleep(500);
+
+    Map<String, Integer> remaining = new TreeMap<>();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (!threadsBefore.contains(thread) && thread.isAlive() && !"Attach Listener".equals(thread.getName())) {
+        remaining.merge(thread.getName(), 1, Integer::sum);
+      }
+    }
+    Map<String, Integer> leaked = new TreeMap<>();
+    for (Map.Entry<String, Integer> entry : remaining.entrySet()) {
+      int expected = SHARED_PLUGIN_THREADS.getOrDefault(entry.getKey(), 0);
+      if (entry.getValue() > expected) {
+        leaked.put(entry.getKey(), entry.getValue() - expected);
+      }
+    }
+
+    Set<String> openSlices = Trace.openAsyncSlices();
+    report(elapsedNanos, listenersLeft, remaining, leaked, openSlices);
+    System.out.println("flight recorder problems: " + (recorderProblems.isEmpty() ? "none" : recorderProblems));
+    return stuckFlows.get() == 0 && misroutedEvents.get() == 0 && callErrors.get() == 0 && leaked.isEmpty() && listenersLeft == 0
+        && openSlices.isEmpty() && recorderProblems.isEmpty();
+  }
+
+  /** Checks that the flight recorder has records, in order, and none with a nonce, token or card details. */
+  private static List<String> checkFlightRecorder() {
+    List<String> problems = new ArrayList<>();
+    List<?> records = (List<?>) FlightRecorder.toMapObject().get("records");
+    if (records.isEmpty()) {
+      problems.add("no records");
+    }
+    long previous = -1;
+    for (Object item : records) {
+      Map<?, ?> record = (Map<?, ?>) item;
+      long sequence = (Long) record.get("sequence");
+      if (sequence <= previous) {
+        problems.add("record " + sequence + " after " + previous);
+      }
+      previous = sequence;
+      for (Object value : record.values()) {
+        String text = String.valueOf(value);
+        if (text.contains("cnon:") || text.contains("verf:") || text.contains("google-pay-token") || text.contains("1111")) {
+          problems.add("card data in " + record);
+        }
+      }
+    }
+    return problems;
+  }
+
+  private void report(long elapsedNanos, int listenersLeft, Map<String, Integer> remaining, Map<String, Integer> leaked,
+      Set<String> openSlices) {
+    double seconds = elapsedNanos / 1e9;
+    System.out.printf("%d flows on %d engine(s)%s in %.2f s: %.1f flows/s (latency %d ms, failure rate %.2f, cancel rate %.2f)%n",
+        flows, engines, sharedActivity != null ? " sharing one activity" : "", seconds, flows / seconds, profile.latencyMs, profile.failureRate, profile.cancelRate);
+    System.out.printf("%-18s %7s %8s %8s %8s %8s  %s%n", "flow", "count", "p50 ms", "p95 ms", "p99 ms", "max ms", "outcomes");
+    for (Flow flow : Flow.values()) {
+      List<Long> samples;
+      synchronized (latencies.get(flow)) {
+        samples = new ArrayList<>(latencies.get(flow));
+      }
+      Collections.sort(samples);
+      System.out.printf("%-18s %7d %8.2f %8.2f %8.2f %8.2f  %s%n", flow.key, samples.size(),
+          percentileMs(samples, 0.50), percentileMs(samples, 0.95), percentileMs(samples, 0.99),
+          percentileMs(samples, 1.0), new TreeMap<>(outcomes.get(flow)));
+    }
+    System.out.println("stuck flows: " + stuckFlows.get());
+    System.out.println("misrouted events: " + misroutedEvents.get());
+    System.out.println("failed calls: " + callErrors.get());
+    System.out.println("activity result listeners after teardown: " + listenersLeft);
+    System.out.println("threads started during the run and still alive: " + remaining);
+    System.out.println("leaked threads: " + (leaked.isEmpty() ? "none" : leaked));
+    if (trace) {
+      System.out.println("open trace slices: " + (openSlices.isEmpty() ? "none" : openSlices));
+    }
+  }
+
+  private static double percentileMs(List<Long> sortedNanos, double percentile) {
+    if (sortedNanos.isEmpty()) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile * sortedNanos.size()) - 1;
+    return sortedNanos.get(Math.max(0, index)) / 1e6;
+  }
+
+  private void runOnMain(Runnable task) {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    mainHandler.post(() -> {
+      try {
+        task.run();
+        done.complete(null);
+      } catch (RuntimeException e) {
+        done.completeExceptionally(e);
+      }
+    });
+    done.join();
+  }
+
+  /** Delivers a result to the listeners of every engine attached to the activity, on the main thread. */
+  private void deliverActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
+    mainHandler.post(() -> {
+      for (Engine engine : attached) {
+        if (engine.activity == activity) {
+          for (PluginRegistry.ActivityResultListener listener : engine.activityResultListeners) {
+            listener.onActivityResult(requestCode, resultCode, data);
+          }
+        }
+      }
+    });
+  }
+
+  static ByteBuffer readable(ByteBuffer buffer) {
+    // Codecs hand out buffers positioned after the last byte written.
+    if (buffer != null && buffer.position() != 0) {
+      buffer.flip();
+    }
+    return buffer;
+  }
+
+  /** One Flutter engine: a plugin instance, its fake messenger and activity, and the Dart side. */
+  private final class Engine {
+    final Activity activity = sharedActivity != null ? sharedActivity : new Activity();
+    final List<PluginRegistry.ActivityResultListener> activityResultListeners = new CopyOnWriteArrayList<>();
+    final Map<String, BinaryMessenger.BinaryMessageHandler> handlers = new ConcurrentHashMap<>();
+    final ExecutorService backgroundTaskQueue = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "loadtest-background-task-queue");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final SquareInAppPaymentsFlutterPlugin plugin = new SquareInAppPaymentsFlutterPlugin(sdk);
+    final BinaryMessenger messenger = fakeMessenger();
+    final ActivityPluginBinding activityBinding = fakeActivityBinding();
+    volatile CompletableFuture<String> current;
+    // Every other buyer verification flow asks for the card ahead of the token.
+    volatile boolean pipelined;
+    volatile String pipelinedNonce;
+
+    void attach() {
+      runOnMain(() -> {
+        plugin.onAttachedToEngine(activity.getApplicationContext(), messenger);
+        plugin.onAttachedToActivity(activityBinding);
+        attached.add(this);
+        handlers.get(EVENTS_CHANNEL).onMessage(
+            readable(StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall("listen", null))), reply -> {});
+      });
+      callInBackground("setApplicationId", Collections.singletonMap("applicationId", "sandbox-sq0idb-loadtest"));
+      if (trace) {
+        callInBackground("setTracingEnabled", Collections.singletonMap("enabled", true));
+      }
+      if (acceptNatively) {
+        Map<String, Object> rule = new LinkedHashMap<>();
+        rule.put("action", "accept");
+        rule.put("brands", Collections.singletonList("VISA"));
+        callInBackground("setCardAcceptanceRules", Collections.singletonMap("rules", Collections.singletonList(rule)));
+      }
+      Map<String, Object> googlePay = new LinkedHashMap<>();
+      googlePay.put("squareLocationId", "LOADTEST");
+      googlePay.put("environment", 3);
+      callOnMain("prewarm", Collections.singletonMap("googlePayEnvironment", 3));
+      callOnMain("initializeGooglePay", googlePay);
+    }
+
+    void detach() {
+      runOnMain(() -> {
+        attached.remove(this);
+        plugin.onDetachedFromActivity();
+        plugin.onDetachedFromEngine();
+      });
+      backgroundTaskQueue.shutdownNow();
+    }
+
+    void runFlows(int count) {
+      for (int i = 0; i < count; i++) {
+        Flow flow = Flow.values()[i % Flow.values().length];
+        Semaphore screen = flow.usesCardScreen() ? cardScreen : googlePayScreen;
+        screen.acquireUninterruptibly();
+        CompletableFuture<String> terminal = new CompletableFuture<>();
+        pipelined = flow == Flow.BUYER_VERIFICATION && (i / Flow.values().length) % 2 == 1;
+        pipelinedNonce = null;
+        // A checkout completes its call instead of sending events, so any event it gets is misrouted.
+        current = flow != Flow.GOOGLE_PAY_CHECKOUT ? terminal : null;
+        long startNanos = System.nanoTime();
+        start(flow, terminal);
+        try {
+          String outcome = terminal.get(flowTimeoutMs, TimeUnit.MILLISECONDS);
+          latencies.get(flow).add(System.nanoTime() - startNanos);
+          outcomes.get(flow).computeIfAbsent(outcome, key -> new AtomicLong()).incrementAndGet();
+        } catch (TimeoutException e) {
+          stuckFlows.incrementAndGet();
+          outcomes.get(flow).computeIfAbsent("stuck", key -> new AtomicLong()).incrementAndGet();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        } finally {
+          current = null;
+          screen.release();
+        }
+      }
+    }
+
+    private void start(Flow flow, CompletableFuture<String> terminal) {
+      Map<String, Object> arguments = new LinkedHashMap<>();
+      switch (flow) {
+        case CARD_ENTRY:
+          arguments.put("collectPostalCode", true);
+          callOnMain("startCardEntryFlow", arguments);
+          break;
+        case BUYER_VERIFICATION:
+          Map<String, Object> money = new LinkedHashMap<>();
+          money.put("amount", 100);
+          money.put("currencyCode", "USD");
+          Map<String, Object> contact = new LinkedHashMap<>();
+          contact.put("givenName", "John");
+          contact.put("countryCode", "US");
+          arguments.put("collectPostalCode", true);
+          arguments.put("squareLocationId", "LOADTEST");
+          arguments.put("buyerAction", "Charge");
+          arguments.put("money", money);
+          arguments.put("contact", contact);
+          arguments.put("pipelineNonce", pipelined);
+          callOnMain("startCardEntryFlowWithBuyerVerification", arguments);
+          break;
+        case GOOGLE_PAY:
+          arguments.put("price", "1.00");
+          arguments.put("currencyCode", "USD");
+          arguments.put("priceStatus", 3);
+          callOnMain("requestGooglePayNonce", arguments);
+          break;
+        case GOOGLE_PAY_CHECKOUT:
+          arguments.put("squareLocationId", "LOADTEST");
+          arguments.put("environment", 3);
+          arguments.put("price", "1.00");
+          arguments.put("currencyCode", "USD");
+          arguments.put("priceStatus", 3);
+          mainHandler.post(() -> plugin.onMethodCall(new MethodCall("googlePayCheckout", arguments),
+              new CheckoutResult(terminal)));
+          break;
+      }
+    }
+
+    /** Plays the Dart side of one batch of flow events. Runs on the main thread. */
+    private void onEvents(ByteBuffer message) {
+      List<?> batch = (List<?>) StandardMethodCodec.INSTANCE.decodeEnvelope(readable(message));
+      for (Object item : batch) {
+        List<?> event = (List<?>) item;
+        String method = (String) event.get(1);
+        CompletableFuture<String> terminal = current;
+        boolean flowEvent = "cardEntryDidObtainCardDetails".equals(method)
+            || "onBuyerVerificationCardDetails".equals(method) || TERMINAL_EVENTS.contains(method);
+        if (flowEvent && (terminal == null || terminal.isDone())) {
+          misroutedEvents.incrementAndGet();
+          System.err.println(method + " delivered to an engine with no flow in progress");
+        } else if ("onBuyerVerificationCardDetails".equals(method)) {
+          if (!pipelined || pipelinedNonce != null) {
+            misroutedEvents.incrementAndGet();
+            System.err.println(method + " delivered to a flow that did not ask for it");
+          }
+          pipelinedNonce = (String) ((Map<?, ?>) event.get(2)).get("nonce");
+        } else if ("onBuyerVerificationSuccess".equals(method) && pipelined
+            && (pipelinedNonce == null || !pipelinedNonce.equals(((Map<?, ?>) event.get(2)).get("nonce")))) {
+          misroutedEvents.incrementAndGet();
+          System.err.println(method + " does not follow the card details it verifies");
+          terminal.complete(method);
+        } else if ("cardEntryDidObtainCardDetails".equals(method)) {
+          Map<?, ?> arguments = (Map<?, ?>) event.get(2);
+          // A card acceptance rule already finished card entry.
+          if (!Boolean.TRUE.equals(arguments.get("acceptedNatively"))) {
+            callInBackground("completeCardEntry", Collections.singletonMap("correlationId", arguments.get("correlationId")));
+          }
+        } else if (TERMINAL_EVENTS.contains(method)) {
+          terminal.complete(method);
+        }
+      }
+    }
+
+    private void callOnMain(String method, Object arguments) {
+      mainHandler.post(() -> plugin.onMethodCall(new MethodCall(method, arguments), new CountingResult()));
+    }
+
+    private void callInBackground(String method, Object arguments) {
+      ByteBuffer message = readable(StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall(method, arguments)));
+      backgroundTaskQueue.execute(() -> handlers.get(BACKGROUND_CHANNEL).onMessage(message, reply -> {
+        try {
+          if (reply == null) {
+            callErrors.incrementAndGet();
+          } else {
+            StandardMethodCodec.INSTANCE.decodeEnvelope(readable(reply));
+          }
+        } catch (RuntimeException e) {
+          callErrors.incrementAndGet();
+          System.err.println(method + " failed: " + e);
+        }
+      }));
+    }
+
+    private BinaryMessenger fakeMessenger() {
+      return (BinaryMessenger) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { BinaryMessenger.class },
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "setMessageHandler":
+                String channel = (String) args[0];
+                if (args[1] == null) {
+                  handlers.remove(channel);
+                } else {
+                  handlers.put(channel, (BinaryMessenger.BinaryMessageHandler) args[1]);
+                }
+                return null;
+              case "send":
+                if (EVENTS_CHANNEL.equals(args[0])) {
+                  onEvents((ByteBuffer) args[1]);
+                }
+                return null;
+              case "makeBackgroundTaskQueue":
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { BinaryMessenger.TaskQueue.class }, (queue, queueMethod, queueArgs) -> objectMethod(queue, queueMethod.getName(), queueArgs));
+              default:
+                return objectMethod(proxy, method.getName(), args);
+            }
+          });
+    }
+
+    private ActivityPluginBinding fakeActivityBinding() {
+      return (ActivityPluginBinding) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ActivityPluginBinding.class },
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getActivity":
+                return activity;
+              case "addActivityResultListener":
+                activityResultListeners.add((PluginRegistry.ActivityResultListener) args[0]);
+                return null;
+              case "removeActivityResultListener":
+                activityResultListeners.remove(args[0]);
+                return null;
+              default:
+                return objectMethod(proxy, method.getName(), args);
+            }
+          });
+    }
+  }
+
+  static Object objectMethod(Object proxy, String name, Object[] args) {
+    switch (name) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "fake@" + Integer.toHexString(System.identityHashCode(proxy));
+      default:
+        return null;
+    }
+  }
+
+  /** Completes a checkout flow with its outcome; usage errors also count as failed calls. */
+  private final class CheckoutResult implements MethodChannel.Result {
+    private final CompletableFuture<String> terminal;
+
+    CheckoutResult(CompletableFuture<String> terminal) {
+      this.terminal = terminal;
+    }
+
+    @Override
+    public void success(Object result) {
+      if (result == null) {
+        terminal.complete("canceled");
+      } else if (result instanceof Map && ((Map<?, ?>) result).get("nonce") != null) {
+        terminal.complete("cardDetails");
+      } else {
+        callErrors.incrementAndGet();
+        System.err.println("googlePayCheckout returned " + result);
+        terminal.complete("invalidResult");
+      }
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+      if ("USAGE_ERROR".equals(errorCode)) {
+        callErrors.incrementAndGet();
+        System.err.println("googlePayCheckout failed: " + errorMessage + " " + errorDetails);
+      }
+      terminal.complete(errorCode);
+    }
+
+    @Override
+    public void notImplemented() {
+      callErrors.incrementAndGet();
+      terminal.complete("notImplemented");
+    }
+  }
+
+  /** Completes a future with a call's result, or with the error it reported. */
+  static final class FutureResult implements MethodChannel.Result {
+    private final CompletableFuture<Object> future;
+
+    FutureResult(CompletableFuture<Object> future) {
+      this.future = future;
+    }
+
+    @Override
+    public void success(Object result) {
+      future.complete(result);
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+      future.completeExceptionally(new IllegalStateException(errorCode + " " + errorMessage + " " + errorDetails));
+    }
+
+    @Override
+    public void notImplemented() {
+      future.completeExceptionally(new UnsupportedOperationException());
+    }
+  }
+
+  private final class CountingResult implements MethodChannel.Result {
+    @Override
+    public void success(Object result) {}
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+      callErrors.incrementAndGet();
+      System.err.println("call failed: " + errorCode + " " + errorMessage + " " + errorDetails);
+    }
+
+    @Override
+    public void notImplemented() {
+      callErrors.incrementAndGet();
+    }
+  }
+}
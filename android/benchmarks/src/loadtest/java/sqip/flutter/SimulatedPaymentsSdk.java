@@ -0,0 +1,245 @@
+package sqip.flutter;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import sqip.BuyerVerification;
+import sqip.BuyerVerificationResult;
+import sqip.Callback;
+import sqip.Card;
+import sqip.CardDetails;
+import sqip.CardEntry;
+import sqip.CardEntryActivityCommand;
+import sqip.CardEntryActivityResult;
+import sqip.CardNonceBackgroundHandler;
+import sqip.GooglePayNonceResult;
+import sqip.VerificationParameters;
+import sqip.flutter.internal.PaymentsSdk;
+
+/**
+ * {@link PaymentsSdk} whose activities complete on their own after a configurable latency. A
+ * share of the flows fail and another share are cancelled by the simulated buyer, or each flow
+ * follows the {@link Outcomes} it is given, e.g. those of a recorded trace. Activity results
+ * are handed to {@link ActivityResults} with the activity that started the flow, which should
+ * deliver them on the main thread to that activity's listeners the way Android does. Like the real
+ * SDK, one instance serves every engine in the process.
+ */
+final class SimulatedPaymentsSdk implements PaymentsSdk {
+
+  interface ActivityResults {
+    void deliver(Activity activity, int requestCode, int resultCode, Intent data);
+  }
+
+  /** Decides how each flow ends, asked once per flow when the SDK gets to that point. */
+  interface Outcomes {
+    boolean cancelCardEntry();
+
+    boolean failVerification();
+
+    boolean cancelGooglePay();
+
+    /** @return the error of the token exchange, or null when it succeeds. */
+    GooglePayNonceResult.Error.Code failNonceExchange();
+  }
+
+  static final class Profile {
+    final long latencyMs;
+    final double failureRate;
+    final double cancelRate;
+
+    Profile(long latencyMs, double failureRate, double cancelRate) {
+      this.latencyMs = latencyMs;
+      this.failureRate = failureRate;
+      this.cancelRate = cancelRate;
+    }
+  }
+
+  private static final Card CARD = new Card(Card.Brand.VISA, "1111", 12, 2030, "94103", Card.Type.CREDIT,
+      Card.PrepaidType.NOT_PREPAID);
+
+  private final Profile profile;
+  private final Outcomes outcomes;
+  private final ActivityResults activityResults;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+      runnable -> thread(runnable, "simulated-sdk"));
+  // The card nonce handler blocks until Dart completes the entry, as on the SDK's own thread.
+  private final ExecutorService cardNonceExecutor = Executors.newCachedThreadPool(
+      runnable -> thread(runnable, "simulated-sdk-card-nonce"));
+  // Results travel with the intent instance, like extras on a real activity result.
+  private final Map<Intent, Object> results = new ConcurrentHashMap<>();
+  // Shared by every engine: tokens and nonces are unique process-wide, as real ones are.
+  private static final AtomicLong nextId = new AtomicLong();
+  private volatile CardNonceBackgroundHandler cardNonceHandler;
+
+  SimulatedPaymentsSdk(Profile profile, ActivityResults activityResults) {
+    this(profile, rolled(profile), activityResults);
+  }
+
+  SimulatedPaymentsSdk(Profile profile, Outcomes outcomes, ActivityResults activityResults) {
+    this.profile = profile;
+    this.outcomes = outcomes;
+    this.activityResults = activityResults;
+  }
+
+  /** Outcomes drawn at the profile's failure and cancel rates. */
+  private static Outcomes rolled(Profile profile) {
+    return new Outcomes() {
+      @Override
+      public boolean cancelCardEntry() {
+        // A failed nonce request is shown in the form; the simulated buyer then gives up.
+        return roll(profile.cancelRate) || roll(profile.failureRate);
+      }
+
+      @Override
+      public boolean failVerification() {
+        return roll(profile.failureRate);
+      }
+
+      @Override
+      public boolean cancelGooglePay() {
+        return roll(profile.cancelRate);
+      }
+
+      @Override
+      public GooglePayNonceResult.Error.Code failNonceExchange() {
+        return roll(profile.failureRate) ? GooglePayNonceResult.Error.Code.NO_NETWORK : null;
+      }
+    };
+  }
+
+  void shutdown() {
+    scheduler.shutdownNow();
+    cardNonceExecutor.shutdownNow();
+  }
+
+  @Override
+  public void setSquareApplicationId(String applicationId) {}
+
+  @Override
+  public void preloadClasses() {}
+
+  @Override
+  public void setCardNonceBackgroundHandler(CardNonceBackgroundHandler handler) {
+    this.cardNonceHandler = handler;
+  }
+
+  @Override
+  public void startCardEntryActivity(Activity activity, boolean collectPostalCode) {
+    scheduler.schedule(() -> enterCard(activity), latencyMs(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void startGiftCardEntryActivity(Activity activity) {
+    startCardEntryActivity(activity, false);
+  }
+
+  private void enterCard(Activity activity) {
+    if (outcomes.cancelCardEntry()) {
+      deliver(activity, CardEntry.DEFAULT_CARD_ENTRY_REQUEST_CODE, Activity.RESULT_CANCELED, CardEntryActivityResult.canceled());
+      return;
+    }
+    cardNonceExecutor.execute(() -> {
+      CardDetails cardDetails = new CardDetails("cnon:simulated-" + nextId.incrementAndGet(), CARD);
+      CardEntryActivityCommand command = cardNonceHandler.handleEnteredCardInBackground(cardDetails);
+      if (command instanceof CardEntryActivityCommand.Finish) {
+        deliver(activity, CardEntry.DEFAULT_CARD_ENTRY_REQUEST_CODE, Activity.RESULT_OK, CardEntryActivityResult.success(cardDetails));
+      } else {
+        deliver(activity, CardEntry.DEFAULT_CARD_ENTRY_REQUEST_CODE, Activity.RESULT_CANCELED, CardEntryActivityResult.canceled());
+      }
+    });
+  }
+
+  @Override
+  public void handleCardEntryResult(Intent data, Callback<CardEntryActivityResult> callback) {
+    callback.onResult((CardEntryActivityResult) results.remove(data));
+  }
+
+  @Override
+  public void startBuyerVerification(Activity activity, VerificationParameters parameters) {
+    scheduler.schedule(() -> {
+      BuyerVerificationResult result = outcomes.failVerification()
+          ? BuyerVerificationResult.error(new BuyerVerificationResult.Error(
+              BuyerVerificationResult.Error.Code.USAGE_ERROR, "Simulated verification failure.",
+              "simulated_failure", "Simulated verification failure."))
+          : BuyerVerificationResult.success("verf:simulated-" + nextId.incrementAndGet());
+      deliver(activity, BuyerVerification.DEFAULT_BUYER_VERIFICATION_REQUEST_CODE, Activity.RESULT_OK, result);
+    }, latencyMs(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void handleBuyerVerificationResult(Intent data, Callback<BuyerVerificationResult> callback) {
+    callback.onResult((BuyerVerificationResult) results.remove(data));
+  }
+
+  @Override
+  public GooglePayClient createGooglePayClient(Activity activity, int environment) {
+    return new GooglePayClient() {
+      @Override
+      public void isReadyToPay(Consumer<Boolean> callback) {
+        scheduler.schedule(() -> callback.accept(true), latencyMs(), TimeUnit.MILLISECONDS);
+      }
+
+      @Override
+      public void loadPaymentData(Activity activity, String squareLocationId, String price, String currencyCode, int priceStatus, int requestCode) {
+        scheduler.schedule(() -> {
+          if (outcomes.cancelGooglePay()) {
+            deliver(activity, requestCode, Activity.RESULT_CANCELED, null);
+          } else {
+            deliver(activity, requestCode, Activity.RESULT_OK, "simulated-google-pay-token-" + nextId.incrementAndGet());
+          }
+        }, latencyMs(), TimeUnit.MILLISECONDS);
+      }
+    };
+  }
+
+  @Override
+  public String getGooglePayToken(Intent data) {
+    return (String) results.remove(data);
+  }
+
+  @Override
+  public GooglePayNonceResult requestGooglePayNonce(String googlePayToken) throws Exception {
+    Thread.sleep(latencyMs());
+    GooglePayNonceResult.Error.Code failure = outcomes.failNonceExchange();
+    if (failure != null) {
+      return GooglePayNonceResult.error(new GooglePayNonceResult.Error(
+          failure, "Simulated failure.", "simulated_" + failure.name().toLowerCase(Locale.ROOT), "Simulated failure."));
+    }
+    return GooglePayNonceResult.success(new CardDetails("cnon:simulated-" + nextId.incrementAndGet(), CARD));
+  }
+
+  private void deliver(Activity activity, int requestCode, int resultCode, Object result) {
+    Intent data = new Intent();
+    if (result != null) {
+      results.put(data, result);
+    }
+    activityResults.deliver(activity, requestCode, resultCode, data);
+  }
+
+  /** The configured latency, with up to 50% jitter either way. */
+  private long latencyMs() {
+    long jitter = profile.latencyMs / 2;
+    return jitter == 0 ? profile.latencyMs : profile.latencyMs - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+  }
+
+  private static boolean roll(double rate) {
+    return ThreadLocalRandom.current().nextDouble() < rate;
+  }
+
+  private static Thread thread(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,78 @@
+package sqip.flutter.internal;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import sqip.BuyerVerificationResult;
+import sqip.Callback;
+import sqip.CardEntryActivityResult;
+import sqip.CardNonceBackgroundHandler;
+import sqip.GooglePayNonceResult;
+import sqip.VerificationParameters;
+
+/**
+ * Stand-in for the SDK backed by Google Play services, which the load test excludes. It only
+ * satisfies the plugin's public constructor; the load test and replay pass their own
+ * {@link PaymentsSdk}, so every method here fails.
+ */
+public final class AndroidPaymentsSdk implements PaymentsSdk {
+
+  @Override
+  public void setSquareApplicationId(String applicationId) {
+    throw unsupported();
+  }
+
+  @Override
+  public void preloadClasses() {
+    throw unsupported();
+  }
+
+  @Override
+  public void setCardNonceBackgroundHandler(CardNonceBackgroundHandler handler) {
+    throw unsupported();
+  }
+
+  @Override
+  public void startCardEntryActivity(Activity activity, boolean collectPostalCode) {
+    throw unsupported();
+  }
+
+  @Override
+  public void startGiftCardEntryActivity(Activity activity) {
+    throw unsupported();
+  }
+
+  @Override
+  public void handleCardEntryResult(Intent data, Callback<CardEntryActivityResult> callback) {
+    throw unsupported();
+  }
+
+  @Override
+  public void startBuyerVerification(Activity activity, VerificationParameters parameters) {
+    throw unsupported();
+  }
+
+  @Override
+  public void handleBuyerVerificationResult(Intent data, Callback<BuyerVerificationResult> callback) {
+    throw unsupported();
+  }
+
+  @Override
+  public GooglePayClient createGooglePayClient(Activity activity, int environment) {
+    throw unsupported();
+  }
+
+  @Override
+  public String getGooglePayToken(Intent data) {
+    throw unsupported();
+  }
+
+  @Override
+  public GooglePayNonceResult requestGooglePayNonce(String googlePayToken) {
+    throw unsupported();
+  }
+
+  private static UnsupportedOperationException unsupported() {
+    return new UnsupportedOperationException("The load test runs the plugin against a simulated SDK.");
+  }
+}
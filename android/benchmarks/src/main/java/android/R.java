@@ -0,0 +1,9 @@
+package android;
+
+/** Stand-in for the Android framework resources. */
+public final class R {
+  public static final class attr {
+    public static final int activityCloseExitAnimation = 0x010100bb;
+    public static final int windowAnimationStyle = 0x010100ae;
+  }
+}
@@ -0,0 +1,19 @@
+package android.app;
+
+import android.content.Context;
+
+/** Stand-in for the Android activity. */
+public class Activity extends Context {
+  public static final int RESULT_OK = -1;
+  public static final int RESULT_CANCELED = 0;
+
+  private volatile boolean finishing;
+
+  public boolean isFinishing() {
+    return finishing;
+  }
+
+  public void finish() {
+    finishing = true;
+  }
+}
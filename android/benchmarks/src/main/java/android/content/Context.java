@@ -0,0 +1,26 @@
+package android.content;
+
+import android.content.res.Resources;
+
+import java.io.File;
+
+/** Stand-in for the Android context. */
+public class Context {
+  private final Resources resources = new Resources();
+
+  public Resources getResources() {
+    return resources;
+  }
+
+  public final String getString(int resId, Object... formatArgs) {
+    return String.format("Developer error: %s", formatArgs);
+  }
+
+  public Context getApplicationContext() {
+    return this;
+  }
+
+  public File getCacheDir() {
+    return new File(System.getProperty("java.io.tmpdir"));
+  }
+}
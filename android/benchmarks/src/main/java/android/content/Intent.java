@@ -0,0 +1,4 @@
+package android.content;
+
+/** Stand-in for the Android intent. Simulated activities key their results by instance. */
+public class Intent {}
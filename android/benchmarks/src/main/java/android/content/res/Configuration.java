@@ -0,0 +1,22 @@
+package android.content.res;
+
+/** Stand-in for the Android configuration. */
+public class Configuration {
+  public int orientation;
+
+  public Configuration() {}
+
+  public Configuration(Configuration other) {
+    this.orientation = other.orientation;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Configuration && ((Configuration) other).orientation == orientation;
+  }
+
+  @Override
+  public int hashCode() {
+    return orientation;
+  }
+}
@@ -0,0 +1,28 @@
+package android.content.res;
+
+import android.util.AttributeSet;
+
+/** Stand-in for the Android resources; themes resolve no attributes. */
+public class Resources {
+  private final Configuration configuration = new Configuration();
+
+  public Configuration getConfiguration() {
+    return configuration;
+  }
+
+  public final Theme newTheme() {
+    return new Theme();
+  }
+
+  public final class Theme {
+    public void applyStyle(int resId, boolean force) {}
+
+    public TypedArray obtainStyledAttributes(AttributeSet set, int[] attrs, int defStyleAttr, int defStyleRes) {
+      return new TypedArray();
+    }
+  }
+
+  public static class NotFoundException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+}
@@ -0,0 +1,10 @@
+package android.content.res;
+
+/** Stand-in for the Android typed array. */
+public class TypedArray {
+  public int getResourceId(int index, int defValue) {
+    return defValue;
+  }
+
+  public void recycle() {}
+}
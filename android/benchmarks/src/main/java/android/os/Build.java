@@ -0,0 +1,18 @@
+package android.os;
+
+/** Stand-in for the platform version constants. */
+public final class Build {
+  private Build() {}
+
+  public static final class VERSION {
+    public static final int SDK_INT = 35;
+
+    private VERSION() {}
+  }
+
+  public static final class VERSION_CODES {
+    public static final int Q = 29;
+
+    private VERSION_CODES() {}
+  }
+}
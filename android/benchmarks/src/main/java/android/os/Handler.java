@@ -0,0 +1,62 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** Stand-in for the Android handler, backed by the {@link Looper} stand-in's executor. */
+public class Handler {
+  private final Looper looper;
+  private final Map<Runnable, List<ScheduledFuture<?>>> scheduled = new IdentityHashMap<>();
+
+  public Handler(Looper looper) {
+    this.looper = looper;
+  }
+
+  public final Looper getLooper() {
+    return looper;
+  }
+
+  public final boolean post(Runnable r) {
+    return postDelayed(r, 0);
+  }
+
+  public final boolean postDelayed(Runnable r, long delayMillis) {
+    synchronized (scheduled) {
+      ScheduledFuture<?>[] future = new ScheduledFuture<?>[1];
+      future[0] = looper.executor.schedule(() -> {
+        synchronized (scheduled) {
+          List<ScheduledFuture<?>> futures = scheduled.get(r);
+          if (futures != null) {
+            futures.remove(future[0]);
+            if (futures.isEmpty()) {
+              scheduled.remove(r);
+            }
+          }
+        }
+        r.run();
+      }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+      scheduled.computeIfAbsent(r, key -> new ArrayList<>()).add(future[0]);
+    }
+    return true;
+  }
+
+  public final boolean postAtTime(Runnable r, long uptimeMillis) {
+    return postDelayed(r, uptimeMillis - SystemClock.uptimeMillis());
+  }
+
+  public final void removeCallbacks(Runnable r) {
+    List<ScheduledFuture<?>> futures;
+    synchronized (scheduled) {
+      futures = scheduled.remove(r);
+    }
+    if (futures != null) {
+      for (ScheduledFuture<?> future : futures) {
+        future.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/** Stand-in for the Android main looper: a single thread that runs posted work in order. */
+public final class Looper {
+  private static final Looper MAIN = new Looper("main");
+
+  final ScheduledExecutorService executor;
+  private volatile Thread thread;
+
+  private Looper(String name) {
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread created = new Thread(runnable, name);
+      created.setDaemon(true);
+      thread = created;
+      return created;
+    });
+    // Starts the thread so that getThread() is never null.
+    executor.execute(() -> {});
+  }
+
+  public static Looper getMainLooper() {
+    return MAIN;
+  }
+
+  public static Looper myLooper() {
+    return Thread.currentThread() == MAIN.thread ? MAIN : null;
+  }
+
+  public Thread getThread() {
+    return thread;
+  }
+}
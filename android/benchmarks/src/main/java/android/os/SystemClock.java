@@ -0,0 +1,16 @@
+package android.os;
+
+/** Stand-in for the Android clock, so the load test runs on a plain JVM. */
+public final class SystemClock {
+  private static final long ORIGIN_NANOS = System.nanoTime();
+
+  private SystemClock() {}
+
+  public static long uptimeMillis() {
+    return (System.nanoTime() - ORIGIN_NANOS) / 1_000_000;
+  }
+
+  public static long elapsedRealtime() {
+    return uptimeMillis();
+  }
+}
@@ -0,0 +1,44 @@
+package android.os;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stand-in for the platform tracer. It records no timings, but fails on an unbalanced end and
+ * keeps the async slices still open so that the load test can check the plugin's trace calls.
+ */
+public final class Trace {
+  private static final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+  private static final Set<String> openAsyncSlices = ConcurrentHashMap.newKeySet();
+
+  private Trace() {}
+
+  public static boolean isEnabled() {
+    return true;
+  }
+
+  public static void beginSection(String sectionName) {
+    depth.get()[0]++;
+  }
+
+  public static void endSection() {
+    if (depth.get()[0]-- == 0) {
+      throw new IllegalStateException("endSection without beginSection on " + Thread.currentThread().getName());
+    }
+  }
+
+  public static void beginAsyncSection(String methodName, int cookie) {
+    openAsyncSlices.add(methodName + "#" + cookie);
+  }
+
+  public static void endAsyncSection(String methodName, int cookie) {
+    if (!openAsyncSlices.remove(methodName + "#" + cookie)) {
+      throw new IllegalStateException("endAsyncSection without beginAsyncSection: " + methodName + "#" + cookie);
+    }
+  }
+
+  /** Async slices begun and not yet ended. */
+  public static Set<String> openAsyncSlices() {
+    return openAsyncSlices;
+  }
+}
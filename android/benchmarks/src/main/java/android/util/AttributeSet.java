@@ -0,0 +1,4 @@
+package android.util;
+
+/** Stand-in for the Android attribute set. */
+public interface AttributeSet {}
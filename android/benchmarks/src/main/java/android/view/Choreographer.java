@@ -0,0 +1,39 @@
+package android.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Stand-in for the Android choreographer: frame callbacks run every 16 ms on the main looper. */
+public final class Choreographer {
+  private static final long FRAME_INTERVAL_MS = 16;
+  private static final Choreographer INSTANCE = new Choreographer();
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  // One runnable per callback, so removeFrameCallback finds what postFrameCallback posted.
+  private final Map<FrameCallback, Runnable> runnables = new ConcurrentHashMap<>();
+
+  public interface FrameCallback {
+    void doFrame(long frameTimeNanos);
+  }
+
+  public static Choreographer getInstance() {
+    return INSTANCE;
+  }
+
+  public void postFrameCallback(FrameCallback callback) {
+    long nextFrame = (SystemClock.uptimeMillis() / FRAME_INTERVAL_MS + 1) * FRAME_INTERVAL_MS;
+    handler.postAtTime(runnable(callback), nextFrame);
+  }
+
+  public void removeFrameCallback(FrameCallback callback) {
+    handler.removeCallbacks(runnable(callback));
+  }
+
+  private Runnable runnable(FrameCallback callback) {
+    return runnables.computeIfAbsent(callback, key -> () -> key.doFrame(System.nanoTime()));
+  }
+}
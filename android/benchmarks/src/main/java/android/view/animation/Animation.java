@@ -0,0 +1,8 @@
+package android.view.animation;
+
+/** Stand-in for the Android animation. */
+public class Animation {
+  public long getDuration() {
+    return 0;
+  }
+}
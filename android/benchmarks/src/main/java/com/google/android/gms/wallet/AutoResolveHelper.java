@@ -0,0 +1,8 @@
+package com.google.android.gms.wallet;
+
+/** Stand-in for the Google Pay result codes. */
+public final class AutoResolveHelper {
+  public static final int RESULT_ERROR = 1;
+
+  private AutoResolveHelper() {}
+}
@@ -0,0 +1,20 @@
+package sqip;
+
+/** Stand-in for the In-App Payments SDK buyer action. */
+public abstract class BuyerAction {
+  private BuyerAction() {}
+
+  public static final class Store extends BuyerAction {}
+
+  public static final class Charge extends BuyerAction {
+    private final Money money;
+
+    public Charge(Money money) {
+      this.money = money;
+    }
+
+    public Money getMoney() {
+      return money;
+    }
+  }
+}
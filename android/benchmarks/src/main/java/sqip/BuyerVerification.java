@@ -0,0 +1,8 @@
+package sqip;
+
+/** Stand-in for the buyer verification request code; the load test simulates verification. */
+public final class BuyerVerification {
+  public static final int DEFAULT_BUYER_VERIFICATION_REQUEST_CODE = 51790;
+
+  private BuyerVerification() {}
+}
@@ -0,0 +1,82 @@
+package sqip;
+
+/** Stand-in for the buyer verification result. */
+public final class BuyerVerificationResult {
+  private final Success successValue;
+  private final Error errorValue;
+
+  private BuyerVerificationResult(Success successValue, Error errorValue) {
+    this.successValue = successValue;
+    this.errorValue = errorValue;
+  }
+
+  public static BuyerVerificationResult success(String verificationToken) {
+    return new BuyerVerificationResult(new Success(verificationToken), null);
+  }
+
+  public static BuyerVerificationResult error(Error error) {
+    return new BuyerVerificationResult(null, error);
+  }
+
+  public boolean isSuccess() {
+    return successValue != null;
+  }
+
+  public boolean isError() {
+    return errorValue != null;
+  }
+
+  public Success getSuccessValue() {
+    return successValue;
+  }
+
+  public Error getErrorValue() {
+    return errorValue;
+  }
+
+  public static final class Success {
+    private final String verificationToken;
+
+    Success(String verificationToken) {
+      this.verificationToken = verificationToken;
+    }
+
+    public String getVerificationToken() {
+      return verificationToken;
+    }
+  }
+
+  public static final class Error {
+    public enum Code {
+      UNSUPPORTED_SDK_VERSION, USAGE_ERROR
+    }
+
+    private final Code code;
+    private final String message;
+    private final String debugCode;
+    private final String debugMessage;
+
+    public Error(Code code, String message, String debugCode, String debugMessage) {
+      this.code = code;
+      this.message = message;
+      this.debugCode = debugCode;
+      this.debugMessage = debugMessage;
+    }
+
+    public Code getCode() {
+      return code;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public String getDebugCode() {
+      return debugCode;
+    }
+
+    public String getDebugMessage() {
+      return debugMessage;
+    }
+  }
+}
@@ -0,0 +1,6 @@
+package sqip;
+
+/** Stand-in for the In-App Payments SDK callback. */
+public interface Callback<T> {
+  void onResult(T result);
+}
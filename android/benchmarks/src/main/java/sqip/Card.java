@@ -0,0 +1,63 @@
+package sqip;
+
+/** Stand-in for the In-App Payments SDK card, so the benchmarks run on a plain JVM. */
+public final class Card {
+  public enum Brand {
+    OTHER_BRAND, VISA, MASTERCARD, AMERICAN_EXPRESS, DISCOVER, DISCOVER_DINERS, JCB, CHINA_UNION_PAY, SQUARE_GIFT_CARD
+  }
+
+  public enum Type {
+    DEBIT, CREDIT, UNKNOWN
+  }
+
+  public enum PrepaidType {
+    PREPAID, NOT_PREPAID, UNKNOWN
+  }
+
+  private final Brand brand;
+  private final String lastFourDigits;
+  private final int expirationMonth;
+  private final int expirationYear;
+  private final String postalCode;
+  private final Type type;
+  private final PrepaidType prepaidType;
+
+  public Card(Brand brand, String lastFourDigits, int expirationMonth, int expirationYear,
+      String postalCode, Type type, PrepaidType prepaidType) {
+    this.brand = brand;
+    this.lastFourDigits = lastFourDigits;
+    this.expirationMonth = expirationMonth;
+    this.expirationYear = expirationYear;
+    this.postalCode = postalCode;
+    this.type = type;
+    this.prepaidType = prepaidType;
+  }
+
+  public Brand getBrand() {
+    return brand;
+  }
+
+  public String getLastFourDigits() {
+    return lastFourDigits;
+  }
+
+  public int getExpirationMonth() {
+    return expirationMonth;
+  }
+
+  public int getExpirationYear() {
+    return expirationYear;
+  }
+
+  public String getPostalCode() {
+    return postalCode;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public PrepaidType getPrepaidType() {
+    return prepaidType;
+  }
+}
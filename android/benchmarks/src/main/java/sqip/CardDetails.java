@@ -0,0 +1,20 @@
+package sqip;
+
+/** Stand-in for the In-App Payments SDK card details. */
+public final class CardDetails {
+  private final String nonce;
+  private final Card card;
+
+  public CardDetails(String nonce, Card card) {
+    this.nonce = nonce;
+    this.card = card;
+  }
+
+  public String getNonce() {
+    return nonce;
+  }
+
+  public Card getCard() {
+    return card;
+  }
+}
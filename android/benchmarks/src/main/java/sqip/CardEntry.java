@@ -0,0 +1,8 @@
+package sqip;
+
+/** Stand-in for the card entry request code; the load test drives card entry through a simulated SDK. */
+public final class CardEntry {
+  public static final int DEFAULT_CARD_ENTRY_REQUEST_CODE = 51789;
+
+  private CardEntry() {}
+}
@@ -0,0 +1,20 @@
+package sqip;
+
+/** Stand-in for the command returned to the card entry activity. */
+public abstract class CardEntryActivityCommand {
+  private CardEntryActivityCommand() {}
+
+  public static final class Finish extends CardEntryActivityCommand {}
+
+  public static final class ShowError extends CardEntryActivityCommand {
+    private final String errorMessage;
+
+    public ShowError(String errorMessage) {
+      this.errorMessage = errorMessage;
+    }
+
+    public String getErrorMessage() {
+      return errorMessage;
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package sqip;
+
+/** Stand-in for the card entry activity result. */
+public final class CardEntryActivityResult {
+  private final CardDetails successValue;
+
+  private CardEntryActivityResult(CardDetails successValue) {
+    this.successValue = successValue;
+  }
+
+  public static CardEntryActivityResult success(CardDetails cardDetails) {
+    return new CardEntryActivityResult(cardDetails);
+  }
+
+  public static CardEntryActivityResult canceled() {
+    return new CardEntryActivityResult(null);
+  }
+
+  public boolean isSuccess() {
+    return successValue != null;
+  }
+
+  public boolean isCanceled() {
+    return successValue == null;
+  }
+
+  public CardDetails getSuccessValue() {
+    return successValue;
+  }
+}
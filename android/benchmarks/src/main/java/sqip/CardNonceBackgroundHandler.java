@@ -0,0 +1,6 @@
+package sqip;
+
+/** Stand-in for the card entry background handler. */
+public interface CardNonceBackgroundHandler {
+  CardEntryActivityCommand handleEnteredCardInBackground(CardDetails cardDetails);
+}
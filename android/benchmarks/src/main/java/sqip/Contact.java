@@ -0,0 +1,119 @@
+package sqip;
+
+import java.util.List;
+
+/** Stand-in for the In-App Payments SDK contact. */
+public final class Contact {
+  private final String givenName;
+  private final String familyName;
+  private final List<String> addressLines;
+  private final String city;
+  private final Country countryCode;
+  private final String email;
+  private final String phone;
+  private final String postalCode;
+  private final String region;
+
+  private Contact(Builder builder, String givenName) {
+    this.givenName = givenName;
+    this.familyName = builder.familyName;
+    this.addressLines = builder.addressLines;
+    this.city = builder.city;
+    this.countryCode = builder.countryCode;
+    this.email = builder.email;
+    this.phone = builder.phone;
+    this.postalCode = builder.postalCode;
+    this.region = builder.region;
+  }
+
+  public String getGivenName() {
+    return givenName;
+  }
+
+  public String getFamilyName() {
+    return familyName;
+  }
+
+  public List<String> getAddressLines() {
+    return addressLines;
+  }
+
+  public String getCity() {
+    return city;
+  }
+
+  public Country getCountryCode() {
+    return countryCode;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public String getPhone() {
+    return phone;
+  }
+
+  public String getPostalCode() {
+    return postalCode;
+  }
+
+  public String getRegion() {
+    return region;
+  }
+
+  public static final class Builder {
+    private String familyName;
+    private List<String> addressLines;
+    private String city;
+    private Country countryCode;
+    private String email;
+    private String phone;
+    private String postalCode;
+    private String region;
+
+    public Builder familyName(String familyName) {
+      this.familyName = familyName;
+      return this;
+    }
+
+    public Builder addressLines(List<String> addressLines) {
+      this.addressLines = addressLines;
+      return this;
+    }
+
+    public Builder city(String city) {
+      this.city = city;
+      return this;
+    }
+
+    public Builder countryCode(Country countryCode) {
+      this.countryCode = countryCode;
+      return this;
+    }
+
+    public Builder email(String email) {
+      this.email = email;
+      return this;
+    }
+
+    public Builder phone(String phone) {
+      this.phone = phone;
+      return this;
+    }
+
+    public Builder postalCode(String postalCode) {
+      this.postalCode = postalCode;
+      return this;
+    }
+
+    public Builder region(String region) {
+      this.region = region;
+      return this;
+    }
+
+    public Contact build(String givenName) {
+      return new Contact(this, givenName);
+    }
+  }
+}
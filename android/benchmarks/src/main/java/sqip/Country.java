@@ -0,0 +1,6 @@
+package sqip;
+
+/** Stand-in for the In-App Payments SDK country; only the codes the benchmarks use. */
+public enum Country {
+  AU, CA, FR, GB, JP, US
+}
@@ -0,0 +1,6 @@
+package sqip;
+
+/** Stand-in for the In-App Payments SDK currency; only the codes the benchmarks use. */
+public enum Currency {
+  AUD, CAD, EUR, GBP, JPY, USD
+}
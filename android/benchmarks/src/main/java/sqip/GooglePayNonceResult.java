@@ -0,0 +1,70 @@
+package sqip;
+
+/** Stand-in for the Google Pay nonce exchange result. */
+public final class GooglePayNonceResult {
+  private final CardDetails successValue;
+  private final Error errorValue;
+
+  private GooglePayNonceResult(CardDetails successValue, Error errorValue) {
+    this.successValue = successValue;
+    this.errorValue = errorValue;
+  }
+
+  public static GooglePayNonceResult success(CardDetails cardDetails) {
+    return new GooglePayNonceResult(cardDetails, null);
+  }
+
+  public static GooglePayNonceResult error(Error error) {
+    return new GooglePayNonceResult(null, error);
+  }
+
+  public boolean isSuccess() {
+    return successValue != null;
+  }
+
+  public boolean isError() {
+    return errorValue != null;
+  }
+
+  public CardDetails getSuccessValue() {
+    return successValue;
+  }
+
+  public Error getErrorValue() {
+    return errorValue;
+  }
+
+  public static final class Error {
+    public enum Code {
+      NO_NETWORK, UNSUPPORTED_SDK_VERSION, USAGE_ERROR
+    }
+
+    private final Code code;
+    private final String message;
+    private final String debugCode;
+    private final String debugMessage;
+
+    public Error(Code code, String message, String debugCode, String debugMessage) {
+      this.code = code;
+      this.message = message;
+      this.debugCode = debugCode;
+      this.debugMessage = debugMessage;
+    }
+
+    public Code getCode() {
+      return code;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public String getDebugCode() {
+      return debugCode;
+    }
+
+    public String getDebugMessage() {
+      return debugMessage;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package sqip;
+
+/** Stand-in for the buyer verification location identifier. */
+public abstract class SquareIdentifier {
+  private SquareIdentifier() {}
+
+  public static final class LocationToken extends SquareIdentifier {
+    private final String locationToken;
+
+    public LocationToken(String locationToken) {
+      this.locationToken = locationToken;
+    }
+
+    public String getLocationToken() {
+      return locationToken;
+    }
+  }
+}
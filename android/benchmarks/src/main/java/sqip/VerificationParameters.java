@@ -0,0 +1,20 @@
+package sqip;
+
+/** Stand-in for the buyer verification parameters. */
+public final class VerificationParameters {
+  private final String paymentSourceId;
+  private final BuyerAction buyerAction;
+  private final SquareIdentifier squareIdentifier;
+  private final Contact contact;
+
+  public VerificationParameters(String paymentSourceId, BuyerAction buyerAction, SquareIdentifier squareIdentifier, Contact contact) {
+    this.paymentSourceId = paymentSourceId;
+    this.buyerAction = buyerAction;
+    this.squareIdentifier = squareIdentifier;
+    this.contact = contact;
+  }
+
+  public String getPaymentSourceId() {
+    return paymentSourceId;
+  }
+}
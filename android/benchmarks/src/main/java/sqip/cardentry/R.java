@@ -0,0 +1,8 @@
+package sqip.cardentry;
+
+/** Stand-in for the card entry module resources. */
+public final class R {
+  public static final class style {
+    public static final int sqip_Theme_CardEntry = 0x7f100001;
+  }
+}
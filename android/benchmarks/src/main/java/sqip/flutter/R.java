@@ -0,0 +1,8 @@
+package sqip.flutter;
+
+/** Stand-in for the generated plugin resources. */
+public final class R {
+  public static final class string {
+    public static final int sqip_flutter_developer_error_message = 0x7f0f0001;
+  }
+}
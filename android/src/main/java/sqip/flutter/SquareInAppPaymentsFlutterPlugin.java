@@ -16,38 +16,102 @@
 
 package sqip.flutter;
 
+import android.app.Activity;
 import android.content.Context;
-import java.util.HashMap;
+import android.content.Intent;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
-import sqip.InAppPaymentsSdk;
+import sqip.flutter.internal.AndroidPaymentsSdk;
+import sqip.flutter.internal.CardAcceptanceRules;
 import sqip.flutter.internal.CardEntryModule;
+import sqip.flutter.internal.CardResultChannel;
+import sqip.flutter.internal.ChannelRecorder;
+import sqip.flutter.internal.ErrorCatalog;
+import sqip.flutter.internal.FlightRecorder;
+import sqip.flutter.internal.FlowRouter;
+import sqip.flutter.internal.FlowTimings;
 import sqip.flutter.internal.GooglePayModule;
+import sqip.flutter.internal.MethodDispatcher;
+import sqip.flutter.internal.MethodSchema;
+import sqip.flutter.internal.PaymentsSdk;
+import sqip.flutter.internal.PluginTrace;
+import sqip.flutter.internal.Prewarmer;
+import sqip.flutter.internal.StartupTimings;
+import sqip.flutter.internal.VerificationArgumentCodec;
+import sqip.flutter.internal.VerificationArguments;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+import static sqip.flutter.internal.MethodDispatcher.Threading.BACKGROUND;
+import static sqip.flutter.internal.MethodDispatcher.Threading.MAIN_THREAD;
+import static sqip.flutter.internal.MethodSchema.optional;
+import static sqip.flutter.internal.MethodSchema.required;
 
-public class SquareInAppPaymentsFlutterPlugin implements MethodCallHandler, FlutterPlugin, ActivityAware {
+public class SquareInAppPaymentsFlutterPlugin implements MethodCallHandler, FlutterPlugin, ActivityAware,
+    PluginRegistry.ActivityResultListener {
 
   private MethodChannel channel;
-  private CardEntryModule cardEntryModule;
-  private GooglePayModule googlePayModule;
+  private MethodChannel backgroundChannel;
+  private CardResultChannel resultChannel;
+  // Modules are created on the first call that needs them, possibly by a BACKGROUND handler.
+  private volatile CardEntryModule cardEntryModule;
+  private volatile GooglePayModule googlePayModule;
+  // Only the binding registers this plugin as a listener; activities are never held strongly, so
+  // a detached activity can be collected even while a module outlives it.
+  private ActivityPluginBinding activityBinding;
+  private WeakReference<Activity> activity = new WeakReference<>(null);
   private Context applicationContext;
+  private final PaymentsSdk sdk;
+  private final FlowTimings flowTimings = new FlowTimings();
+  private final StartupTimings startupTimings = new StartupTimings();
+  private final MethodDispatcher dispatcher = createDispatcher();
+
+  public SquareInAppPaymentsFlutterPlugin() {
+    this(new AndroidPaymentsSdk());
+  }
 
-  public SquareInAppPaymentsFlutterPlugin() {}
+  /** Runs the plugin against another SDK implementation, e.g. a simulated one off-device. */
+  SquareInAppPaymentsFlutterPlugin(PaymentsSdk sdk) {
+    this.sdk = sdk;
+  }
 
   @Override
   public void onAttachedToEngine(FlutterPluginBinding binding) {
-    this.applicationContext = binding.getApplicationContext();
-    channel = new MethodChannel(binding.getBinaryMessenger(), "square_in_app_payments");
+    onAttachedToEngine(binding.getApplicationContext(), binding.getBinaryMessenger());
+  }
+
+  void onAttachedToEngine(Context applicationContext, BinaryMessenger messenger) {
+    long startNanos = System.nanoTime();
+    this.applicationContext = applicationContext;
+    ErrorCatalog.setContext(applicationContext);
+    channel = new MethodChannel(messenger, "square_in_app_payments",
+        new StandardMethodCodec(VerificationArgumentCodec.INSTANCE));
+    resultChannel = new CardResultChannel(messenger);
+    backgroundChannel = new MethodChannel(messenger, "square_in_app_payments/background",
+        StandardMethodCodec.INSTANCE, messenger.makeBackgroundTaskQueue());
+    backgroundChannel.setMethodCallHandler((call, result) -> dispatcher.dispatch(call, result, BACKGROUND));
     // MethodCallHandler is set in onAttachedToActivity to avoid NPE issues
+    startupTimings.record(StartupTimings.ATTACH_TO_ENGINE, startNanos);
   }
 
   @Override
   public void onDetachedFromEngine(FlutterPluginBinding binding) {
+    onDetachedFromEngine();
+  }
+
+  void onDetachedFromEngine() {
+    backgroundChannel.setMethodCallHandler(null);
+    backgroundChannel = null;
     cardEntryModule = null;
     googlePayModule = null;
     channel = null;
@@ -55,96 +119,336 @@ public class SquareInAppPaymentsFlutterPlugin implements MethodCallHandler, Flut
 
   @Override
   public void onAttachedToActivity(ActivityPluginBinding activityBinding) {
+    long startNanos = System.nanoTime();
     channel.setMethodCallHandler(this);
-    cardEntryModule = new CardEntryModule(applicationContext, channel);
-    googlePayModule = new GooglePayModule(applicationContext, channel);
-
-    googlePayModule.attachActivityResultListener(activityBinding, channel);
-    cardEntryModule.attachActivityResultListener(activityBinding, channel);
+    attachActivity(activityBinding);
+    startupTimings.record(StartupTimings.ATTACH_TO_ACTIVITY, startNanos);
   }
 
+  /** Keeps the modules, and any flow in progress, and moves them to the recreated activity. */
   @Override
   public void onReattachedToActivityForConfigChanges(ActivityPluginBinding activityBinding) {
-    onAttachedToActivity(activityBinding);
+    attachActivity(activityBinding);
   }
 
   @Override
   public void onDetachedFromActivityForConfigChanges() {
-    cardEntryModule = null;
-    googlePayModule = null;
-    channel = null;
+    detachActivity();
   }
 
   @Override
   public void onDetachedFromActivity() {
-    cardEntryModule = null;
-    googlePayModule = null;
-    channel = null;
+    detachActivity();
+    channel.setMethodCallHandler(null);
+    synchronized (this) {
+      if (cardEntryModule != null) {
+        cardEntryModule.dispose();
+      }
+      if (googlePayModule != null) {
+        googlePayModule.dispose();
+      }
+      cardEntryModule = null;
+      googlePayModule = null;
+    }
+  }
+
+  private void attachActivity(ActivityPluginBinding binding) {
+    activityBinding = binding;
+    binding.addActivityResultListener(this);
+    Activity attached = binding.getActivity();
+    synchronized (this) {
+      activity = new WeakReference<>(attached);
+      if (cardEntryModule != null) {
+        cardEntryModule.attachActivity(attached);
+      }
+      if (googlePayModule != null) {
+        googlePayModule.attachActivity(attached);
+      }
+    }
+  }
+
+  private void detachActivity() {
+    if (activityBinding != null) {
+      activityBinding.removeActivityResultListener(this);
+      activityBinding = null;
+    }
+    synchronized (this) {
+      activity.clear();
+      if (cardEntryModule != null) {
+        cardEntryModule.detachActivity();
+      }
+      if (googlePayModule != null) {
+        googlePayModule.detachActivity();
+      }
+    }
+  }
+
+  /**
+   * Every engine attached to the activity sees the result; the router hands it to the module that
+   * started the flow, whichever engine that is.
+   */
+  @Override
+  public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
+    return FlowRouter.INSTANCE.onActivityResult(requestCode, resultCode, data);
+  }
+
+  private CardEntryModule cardEntryModule() {
+    CardEntryModule module = cardEntryModule;
+    if (module == null) {
+      synchronized (this) {
+        module = cardEntryModule;
+        if (module == null) {
+          long startNanos = System.nanoTime();
+          module = new CardEntryModule(sdk, resultChannel, flowTimings);
+          module.attachActivity(activity.get());
+          cardEntryModule = module;
+          startupTimings.record(StartupTimings.CREATE_CARD_ENTRY_MODULE, startNanos);
+        }
+      }
+    }
+    return module;
+  }
+
+  private GooglePayModule googlePayModule() {
+    GooglePayModule module = googlePayModule;
+    if (module == null) {
+      synchronized (this) {
+        module = googlePayModule;
+        if (module == null) {
+          long startNanos = System.nanoTime();
+          module = new GooglePayModule(sdk, resultChannel, flowTimings);
+          module.attachActivity(activity.get());
+          googlePayModule = module;
+          startupTimings.record(StartupTimings.CREATE_GOOGLE_PAY_MODULE, startNanos);
+        }
+      }
+    }
+    return module;
   }
 
   @Override
   public void onMethodCall(MethodCall call, Result result) {
-    switch (call.method) {
-      case "setApplicationId":
-        String applicationId = call.argument("applicationId");
-        InAppPaymentsSdk.INSTANCE.setSquareApplicationId(applicationId);
-        result.success(null);
-        break;
-      case "startCardEntryFlow":
-        boolean collectPostalCode = call.argument("collectPostalCode");
-        cardEntryModule.startCardEntryFlow(result, collectPostalCode);
-        break;
-      case "startGiftCardEntryFlow":
-        cardEntryModule.startGiftCardEntryFlow(result);
-        break;
-      case "completeCardEntry":
-        cardEntryModule.completeCardEntry(result);
-        break;
-      case "showCardNonceProcessingError":
-        String errorMessage = call.argument("errorMessage");
-        cardEntryModule.showCardNonceProcessingError(result, errorMessage);
-        break;
-      case "initializeGooglePay":
-        String squareLocationId = call.argument("squareLocationId");
-        int environment = call.argument("environment");
-        googlePayModule.initializeGooglePay(squareLocationId, environment);
-        result.success(null);
-        break;
-      case "canUseGooglePay":
-        googlePayModule.canUseGooglePay(result);
-        break;
-      case "requestGooglePayNonce":
-        String price = call.argument("price");
-        String currencyCode = call.argument("currencyCode");
-        int priceStatus = call.argument("priceStatus");
-        googlePayModule.requestGooglePayNonce(result, price, currencyCode, priceStatus);
-        break;
-      case "startCardEntryFlowWithBuyerVerification":
-        boolean collectPostal = call.argument("collectPostalCode");
-        String locationId = call.argument("squareLocationId");
-        String buyerAction = call.argument("buyerAction");
-        HashMap<String, Object> moneyMap = call.argument("money");
-        HashMap<String, Object> contactMap = call.argument("contact");
-
-        cardEntryModule.startCardEntryFlowWithBuyerVerification(result, collectPostal, locationId, buyerAction, moneyMap, contactMap);
-        break;
-      case "startBuyerVerificationFlow":
-        String locationId2 = call.argument("squareLocationId");
-        String buyerAction2 = call.argument("buyerAction");
-        HashMap<String, Object> moneyMap2 = call.argument("money");
-        HashMap<String, Object> contactMap2 = call.argument("contact");
-        String paymentSourceId = call.argument("paymentSourceId");
-
-        cardEntryModule.startBuyerVerificationFlow(result, buyerAction2, moneyMap2, locationId2, contactMap2, paymentSourceId);
-        break;
-      case "startSecureRemoteCommerce":
-        int amount = call.argument("amount");
-        // Not yet implemented
-        result.notImplemented();
-        break;
-      default:
-        result.notImplemented();
-        break;
+    dispatcher.dispatch(call, result, MAIN_THREAD);
+  }
+
+  /**
+   * MAIN_THREAD methods launch activities or touch the Google Pay client and run on the platform
+   * thread. BACKGROUND methods only update thread-safe state; Android calls them on
+   * square_in_app_payments/background, which runs on a background task queue.
+   */
+  private MethodDispatcher createDispatcher() {
+    return new MethodDispatcher()
+        .register("setApplicationId", BACKGROUND,
+            MethodSchema.of(required("applicationId", String.class)), this::setApplicationId)
+        .register("setResultEncoding", BACKGROUND,
+            MethodSchema.of(required("encoding", String.class)), this::setResultEncoding)
+        .register("getPluginMetrics", BACKGROUND, MethodSchema.NONE, this::getPluginMetrics)
+        .register("getFlowTimings", BACKGROUND, MethodSchema.NONE, this::getFlowTimings)
+        .register("getStartupTimings", BACKGROUND, MethodSchema.NONE, this::getStartupTimings)
+        .register("getErrorCounts", BACKGROUND, MethodSchema.NONE, this::getErrorCounts)
+        .register("getFlightRecorderDump", BACKGROUND, MethodSchema.NONE, this::getFlightRecorderDump)
+        .register("startChannelRecording", BACKGROUND,
+            MethodSchema.of(optional("maxBytes", Long.class)), this::startChannelRecording)
+        .register("stopChannelRecording", BACKGROUND, MethodSchema.NONE, this::stopChannelRecording)
+        .register("setTracingEnabled", BACKGROUND,
+            MethodSchema.of(required("enabled", Boolean.class)), this::setTracingEnabled)
+        .register("prewarm", MAIN_THREAD,
+            MethodSchema.of(optional("googlePayEnvironment", Integer.class)), this::prewarm)
+        .register("startCardEntryFlow", MAIN_THREAD,
+            MethodSchema.of(required("collectPostalCode", Boolean.class)), this::startCardEntryFlow)
+        .register("startGiftCardEntryFlow", MAIN_THREAD, MethodSchema.NONE, this::startGiftCardEntryFlow)
+        .register("completeCardEntry", BACKGROUND,
+            MethodSchema.of(optional("correlationId", String.class)), this::completeCardEntry)
+        .register("showCardNonceProcessingError", BACKGROUND,
+            MethodSchema.of(optional("correlationId", String.class), required("errorMessage", String.class)),
+            this::showCardNonceProcessingError)
+        .register("setCardNonceProcessingDeadline", BACKGROUND,
+            MethodSchema.of(required("deadlineMs", Long.class), optional("fallbackErrorMessage", String.class)),
+            this::setCardNonceProcessingDeadline)
+        .register("setCardAcceptanceRules", BACKGROUND,
+            MethodSchema.of(required("rules", List.class)),
+            this::setCardAcceptanceRules)
+        .register("initializeGooglePay", MAIN_THREAD,
+            MethodSchema.of(required("squareLocationId", String.class), required("environment", Integer.class),
+                optional("readinessCacheTtlMs", Long.class)),
+            this::initializeGooglePay)
+        .register("setGooglePayNonceExchangeOptions", BACKGROUND,
+            MethodSchema.of(required("maxAttempts", Integer.class), required("deadlineMs", Long.class)),
+            this::setGooglePayNonceExchangeOptions)
+        .register("canUseGooglePay", MAIN_THREAD, MethodSchema.NONE, this::canUseGooglePay)
+        .register("requestGooglePayNonce", MAIN_THREAD,
+            MethodSchema.of(required("price", String.class), required("currencyCode", String.class),
+                required("priceStatus", Integer.class)),
+            this::requestGooglePayNonce)
+        .register("googlePayCheckout", MAIN_THREAD,
+            MethodSchema.of(required("squareLocationId", String.class), required("environment", Integer.class),
+                required("price", String.class), required("currencyCode", String.class),
+                required("priceStatus", Integer.class)),
+            this::googlePayCheckout)
+        .register("startCardEntryFlowWithBuyerVerification", MAIN_THREAD,
+            MethodSchema.of(required("collectPostalCode", Boolean.class), required("squareLocationId", String.class),
+                required("buyerAction", Object.class), required("contact", Object.class), optional("money", Object.class),
+                optional("pipelineNonce", Boolean.class)),
+            this::startCardEntryFlowWithBuyerVerification)
+        .register("startBuyerVerificationFlow", MAIN_THREAD,
+            MethodSchema.of(required("squareLocationId", String.class), required("buyerAction", Object.class),
+                required("contact", Object.class), optional("money", Object.class),
+                required("paymentSourceId", String.class)),
+            this::startBuyerVerificationFlow)
+        .register("startSecureRemoteCommerce", MAIN_THREAD,
+            MethodSchema.of(required("amount", Integer.class)), (call, result) -> result.notImplemented());
+  }
+
+  private void setApplicationId(MethodCall call, Result result) {
+    String applicationId = call.argument("applicationId");
+    sdk.setSquareApplicationId(applicationId);
+    result.success(null);
+  }
+
+  private void setResultEncoding(MethodCall call, Result result) {
+    String encoding = call.argument("encoding");
+    resultChannel.setEncoding(encoding);
+    result.success(null);
+  }
+
+  private void getPluginMetrics(MethodCall call, Result result) {
+    result.success(dispatcher.metrics());
+  }
+
+  private void getFlowTimings(MethodCall call, Result result) {
+    result.success(flowTimings.toMapObject());
+  }
+
+  private void getStartupTimings(MethodCall call, Result result) {
+    result.success(startupTimings.toMapObject());
+  }
+
+  private void getErrorCounts(MethodCall call, Result result) {
+    result.success(ErrorCatalog.toMapObject());
+  }
+
+  private void getFlightRecorderDump(MethodCall call, Result result) {
+    result.success(FlightRecorder.toMapObject());
+  }
+
+  private void setTracingEnabled(MethodCall call, Result result) {
+    boolean enabled = call.argument("enabled");
+    PluginTrace.setEnabled(enabled);
+    result.success(null);
+  }
+
+  private void startChannelRecording(MethodCall call, Result result) {
+    Number maxBytes = call.argument("maxBytes");
+    ChannelRecorder.start(result, applicationContext.getCacheDir(),
+        maxBytes != null ? maxBytes.longValue() : ChannelRecorder.DEFAULT_MAX_BYTES);
+  }
+
+  private void stopChannelRecording(MethodCall call, Result result) {
+    ChannelRecorder.stop(result);
+  }
+
+  /** Creates both modules here and does the rest of the first-use work on a background thread. */
+  private void prewarm(MethodCall call, Result result) {
+    Integer googlePayEnvironment = call.argument("googlePayEnvironment");
+    CardEntryModule cardEntry = cardEntryModule();
+    GooglePayModule googlePay = googlePayModule();
+    new Prewarmer()
+        .step(Prewarmer.SDK_CLASSES, () -> {
+          sdk.preloadClasses();
+          return true;
+        })
+        .step(Prewarmer.CONVERTERS, () -> {
+          CardResultChannel.prewarm();
+          return true;
+        })
+        .step(Prewarmer.CARD_ENTRY_THEME, cardEntry::prewarmCloseAnimation)
+        .step(Prewarmer.GOOGLE_PAY_CLIENT, () -> googlePay.prewarmClient(googlePayEnvironment))
+        .run(result);
+  }
+
+  private void startCardEntryFlow(MethodCall call, Result result) {
+    boolean collectPostalCode = call.argument("collectPostalCode");
+    cardEntryModule().startCardEntryFlow(result, collectPostalCode);
+  }
+
+  private void startGiftCardEntryFlow(MethodCall call, Result result) {
+    cardEntryModule().startGiftCardEntryFlow(result);
+  }
+
+  private void completeCardEntry(MethodCall call, Result result) {
+    String correlationId = call.argument("correlationId");
+    cardEntryModule().completeCardEntry(result, correlationId);
+  }
+
+  private void showCardNonceProcessingError(MethodCall call, Result result) {
+    String correlationId = call.argument("correlationId");
+    String errorMessage = call.argument("errorMessage");
+    cardEntryModule().showCardNonceProcessingError(result, correlationId, errorMessage);
+  }
+
+  private void setCardNonceProcessingDeadline(MethodCall call, Result result) {
+    Number deadlineMs = call.argument("deadlineMs");
+    String fallbackErrorMessage = call.argument("fallbackErrorMessage");
+    cardEntryModule().setCardNonceProcessingDeadline(result, deadlineMs.longValue(), fallbackErrorMessage);
+  }
+
+  private void setCardAcceptanceRules(MethodCall call, Result result) {
+    CardAcceptanceRules rules = CardAcceptanceRules.decode(call.<List<?>>argument("rules"), result);
+    if (rules != null) {
+      cardEntryModule().setCardAcceptanceRules(result, rules);
+    }
+  }
+
+  private void initializeGooglePay(MethodCall call, Result result) {
+    String squareLocationId = call.argument("squareLocationId");
+    int environment = call.argument("environment");
+    Number readinessCacheTtlMs = call.argument("readinessCacheTtlMs");
+    googlePayModule().initializeGooglePay(squareLocationId, environment,
+        readinessCacheTtlMs != null ? readinessCacheTtlMs.longValue() : GooglePayModule.DEFAULT_READINESS_CACHE_TTL_MS);
+    result.success(null);
+  }
+
+  private void setGooglePayNonceExchangeOptions(MethodCall call, Result result) {
+    int maxAttempts = call.argument("maxAttempts");
+    Number deadlineMs = call.argument("deadlineMs");
+    googlePayModule().setNonceExchangeOptions(result, maxAttempts, deadlineMs.longValue());
+  }
+
+  private void canUseGooglePay(MethodCall call, Result result) {
+    googlePayModule().canUseGooglePay(result);
+  }
+
+  private void requestGooglePayNonce(MethodCall call, Result result) {
+    String price = call.argument("price");
+    String currencyCode = call.argument("currencyCode");
+    int priceStatus = call.argument("priceStatus");
+    googlePayModule().requestGooglePayNonce(result, price, currencyCode, priceStatus);
+  }
+
+  private void googlePayCheckout(MethodCall call, Result result) {
+    String squareLocationId = call.argument("squareLocationId");
+    int environment = call.argument("environment");
+    String price = call.argument("price");
+    String currencyCode = call.argument("currencyCode");
+    int priceStatus = call.argument("priceStatus");
+    googlePayModule().googlePayCheckout(result, squareLocationId, environment, price, currencyCode, priceStatus);
+  }
+
+  private void startCardEntryFlowWithBuyerVerification(MethodCall call, Result result) {
+    boolean collectPostalCode = call.argument("collectPostalCode");
+    boolean pipelineNonce = Boolean.TRUE.equals(call.argument("pipelineNonce"));
+    VerificationArguments verificationArguments = VerificationArguments.decode(call, result);
+    if (verificationArguments != null) {
+      cardEntryModule().startCardEntryFlowWithBuyerVerification(result, collectPostalCode, verificationArguments,
+          pipelineNonce);
+    }
+  }
+
+  private void startBuyerVerificationFlow(MethodCall call, Result result) {
+    VerificationArguments verificationArguments = VerificationArguments.decode(call, result);
+    String paymentSourceId = call.argument("paymentSourceId");
+    if (verificationArguments != null) {
+      cardEntryModule().startBuyerVerificationFlow(result, verificationArguments, paymentSourceId);
     }
   }
 }
@@ -0,0 +1,37 @@
+package sqip.flutter.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Parses activity results and converts them to channel payloads off the main thread, so that
+ * returning from card entry, buyer verification or the Google Pay sheet does not compete with the
+ * app's first frame. Results are processed one at a time in the order they arrived, which keeps the
+ * events of every flow in order. Work that touches an activity is posted back to the main thread.
+ */
+final class ActivityResultProcessor {
+
+  private static final Executor executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "sqip-flutter-activity-result");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  void process(Runnable task) {
+    executor.execute(task);
+  }
+
+  void runOnMainThread(Runnable task) {
+    mainHandler.post(task);
+  }
+
+  /** Runs {@code task} on the main thread at {@code uptimeMillis}, or as soon as possible after it. */
+  void runOnMainThreadAt(Runnable task, long uptimeMillis) {
+    mainHandler.postAtTime(task, uptimeMillis);
+  }
+}
@@ -0,0 +1,120 @@
+package sqip.flutter.internal;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import com.google.android.gms.wallet.AutoResolveHelper;
+import com.google.android.gms.wallet.PaymentData;
+import com.google.android.gms.wallet.PaymentDataRequest;
+import com.google.android.gms.wallet.PaymentsClient;
+import com.google.android.gms.wallet.TransactionInfo;
+import com.google.android.gms.wallet.Wallet;
+
+import java.util.function.Consumer;
+
+import sqip.BuyerVerification;
+import sqip.BuyerVerificationResult;
+import sqip.Callback;
+import sqip.Card;
+import sqip.CardDetails;
+import sqip.CardEntry;
+import sqip.CardEntryActivityResult;
+import sqip.CardNonceBackgroundHandler;
+import sqip.GooglePay;
+import sqip.GooglePayNonceResult;
+import sqip.InAppPaymentsSdk;
+import sqip.VerificationParameters;
+
+/** {@link PaymentsSdk} backed by the In-App Payments SDK and Google Play services. */
+public final class AndroidPaymentsSdk implements PaymentsSdk {
+
+  private static final Class<?>[] FIRST_CHECKOUT_CLASSES = {
+      CardEntry.class, CardEntryActivityResult.class, CardDetails.class, Card.class,
+      BuyerVerification.class, BuyerVerificationResult.class, VerificationParameters.class,
+      GooglePay.class, GooglePayNonceResult.class,
+      Wallet.class, PaymentsClient.class, PaymentDataRequest.class, TransactionInfo.class, PaymentData.class,
+  };
+
+  @Override
+  public void setSquareApplicationId(String applicationId) {
+    InAppPaymentsSdk.INSTANCE.setSquareApplicationId(applicationId);
+  }
+
+  @Override
+  public void preloadClasses() throws ClassNotFoundException {
+    ClassLoader classLoader = AndroidPaymentsSdk.class.getClassLoader();
+    for (Class<?> type : FIRST_CHECKOUT_CLASSES) {
+      // A class literal only loads the class; forName also runs its static initializers.
+      Class.forName(type.getName(), true, classLoader);
+    }
+  }
+
+  @Override
+  public void setCardNonceBackgroundHandler(CardNonceBackgroundHandler handler) {
+    CardEntry.setCardNonceBackgroundHandler(handler);
+  }
+
+  @Override
+  public void startCardEntryActivity(Activity activity, boolean collectPostalCode) {
+    CardEntry.startCardEntryActivity(activity, collectPostalCode);
+  }
+
+  @Override
+  public void startGiftCardEntryActivity(Activity activity) {
+    CardEntry.startGiftCardEntryActivity(activity);
+  }
+
+  @Override
+  public void handleCardEntryResult(Intent data, Callback<CardEntryActivityResult> callback) {
+    CardEntry.handleActivityResult(data, callback);
+  }
+
+  @Override
+  public void startBuyerVerification(Activity activity, VerificationParameters parameters) {
+    BuyerVerification.verify(activity, parameters);
+  }
+
+  @Override
+  public void handleBuyerVerificationResult(Intent data, Callback<BuyerVerificationResult> callback) {
+    BuyerVerification.handleActivityResult(data, callback);
+  }
+
+  @Override
+  public GooglePayClient createGooglePayClient(Activity activity, int environment) {
+    PaymentsClient paymentsClient = Wallet.getPaymentsClient(
+        activity,
+        new Wallet.WalletOptions.Builder().setEnvironment(environment).build()
+    );
+    return new GooglePayClient() {
+      @Override
+      public void isReadyToPay(Consumer<Boolean> callback) {
+        // Matches the previous canUseGooglePay contract, which reported whether the request succeeded.
+        paymentsClient.isReadyToPay(GooglePay.createIsReadyToPayRequest())
+            .addOnCompleteListener(task -> callback.accept(task.isSuccessful()));
+      }
+
+      @Override
+      public void loadPaymentData(Activity activity, String squareLocationId, String price, String currencyCode, int priceStatus, int requestCode) {
+        TransactionInfo transactionInfo = TransactionInfo.newBuilder()
+            .setTotalPriceStatus(priceStatus)
+            .setTotalPrice(price)
+            .setCurrencyCode(currencyCode)
+            .build();
+        PaymentDataRequest request = GooglePay.createPaymentDataRequest(squareLocationId, transactionInfo);
+        AutoResolveHelper.resolveTask(paymentsClient.loadPaymentData(request), activity, requestCode);
+      }
+    };
+  }
+
+  @Override
+  public String getGooglePayToken(Intent data) {
+    PaymentData paymentData = PaymentData.getFromIntent(data);
+    ErrorHandlerUtils.checkNotNull(paymentData, "paymentData should never be null.");
+    return paymentData.getPaymentMethodToken().getToken();
+  }
+
+  @Override
+  public GooglePayNonceResult requestGooglePayNonce(String googlePayToken) throws Exception {
+    return GooglePay.requestGooglePayNonce(googlePayToken).execute();
+  }
+}
@@ -0,0 +1,21 @@
+package sqip.flutter.internal;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The plugin's single thread for short background work that must stay off the main thread:
+ * resolving the card entry close animation, the Prewarmer's steps and writing channel recordings.
+ * Tasks run one at a time in submission order, so a prewarm started right after attach finds the
+ * theme resolved. Nothing submitted here may block on the network or on another flow.
+ */
+final class BackgroundThread {
+
+  static final Executor executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "sqip-flutter-background");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private BackgroundThread() {}
+}
@@ -0,0 +1,172 @@
+package sqip.flutter.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+import sqip.Card;
+import sqip.CardEntryActivityCommand;
+
+/**
+ * Card acceptance rules set by setCardAcceptanceRules and evaluated in the card nonce handler, so
+ * that cards decided by a static policy skip the round trip to Dart. Rules are checked in order
+ * and the first one that matches decides; a card no rule matches goes to Dart as before.
+ *
+ * <p>A rule matches when every criterion it sets matches: the brand, type and prepaid type are
+ * one of the listed values, and the postal code starts with one of the listed prefixes, ignoring
+ * case and spaces. A card without a postal code does not match a postal code criterion.
+ */
+public final class CardAcceptanceRules {
+
+  static final String FL_INVALID_CARD_ACCEPTANCE_RULE = "fl_invalid_card_acceptance_rule";
+
+  static final CardAcceptanceRules NONE = new CardAcceptanceRules(Collections.emptyList());
+
+  private static final String ACTION_ACCEPT = "accept";
+  private static final String ACTION_REJECT = "reject";
+
+  private final List<Rule> rules;
+
+  private CardAcceptanceRules(List<Rule> rules) {
+    this.rules = rules;
+  }
+
+  /**
+   * Decodes the {@code rules} argument, or reports a USAGE_ERROR on {@code result} and returns
+   * null when a rule is invalid.
+   */
+  public static CardAcceptanceRules decode(List<?> rules, MethodChannel.Result result) {
+    List<Rule> decoded = new ArrayList<>(rules.size());
+    for (int i = 0; i < rules.size(); i++) {
+      try {
+        decoded.add(Rule.from(rules.get(i)));
+      } catch (IllegalArgumentException e) {
+        ErrorCatalog.reject(result, FL_INVALID_CARD_ACCEPTANCE_RULE, "rules[" + i + "]: " + e.getMessage());
+        return null;
+      }
+    }
+    return decoded.isEmpty() ? NONE : new CardAcceptanceRules(Collections.unmodifiableList(decoded));
+  }
+
+  /** @return the command of the first matching rule, or null when Dart has to decide. */
+  CardEntryActivityCommand evaluate(Card card) {
+    for (Rule rule : rules) {
+      if (rule.matches(card)) {
+        return rule.accept ? new CardEntryActivityCommand.Finish() : new CardEntryActivityCommand.ShowError(rule.errorMessage);
+      }
+    }
+    return null;
+  }
+
+  private static final class Rule {
+    final boolean accept;
+    final String errorMessage;
+    // Null criteria match every card.
+    final EnumSet<Card.Brand> brands;
+    final EnumSet<Card.Type> types;
+    final EnumSet<Card.PrepaidType> prepaidTypes;
+    final String[] postalCodePrefixes;
+
+    private Rule(boolean accept, String errorMessage, EnumSet<Card.Brand> brands, EnumSet<Card.Type> types,
+        EnumSet<Card.PrepaidType> prepaidTypes, String[] postalCodePrefixes) {
+      this.accept = accept;
+      this.errorMessage = errorMessage;
+      this.brands = brands;
+      this.types = types;
+      this.prepaidTypes = prepaidTypes;
+      this.postalCodePrefixes = postalCodePrefixes;
+    }
+
+    static Rule from(Object value) {
+      if (!(value instanceof Map)) {
+        throw new IllegalArgumentException("must be a Map.");
+      }
+      Map<?, ?> map = (Map<?, ?>) value;
+      Object action = map.get("action");
+      Object errorMessage = map.get("errorMessage");
+      boolean accept;
+      if (ACTION_ACCEPT.equals(action)) {
+        accept = true;
+      } else if (ACTION_REJECT.equals(action)) {
+        if (!(errorMessage instanceof String) || ((String) errorMessage).isEmpty()) {
+          throw new IllegalArgumentException("a reject rule needs an errorMessage.");
+        }
+        accept = false;
+      } else {
+        throw new IllegalArgumentException("action must be \"" + ACTION_ACCEPT + "\" or \"" + ACTION_REJECT + "\".");
+      }
+      return new Rule(accept, accept ? null : (String) errorMessage,
+          enumSet(Card.Brand.class, map.get("brands"), "brands"),
+          enumSet(Card.Type.class, map.get("types"), "types"),
+          enumSet(Card.PrepaidType.class, map.get("prepaidTypes"), "prepaidTypes"),
+          postalCodePrefixes(map.get("postalCodePrefixes")));
+    }
+
+    boolean matches(Card card) {
+      if (brands != null && !brands.contains(card.getBrand())) {
+        return false;
+      }
+      if (types != null && !types.contains(card.getType())) {
+        return false;
+      }
+      if (prepaidTypes != null && !prepaidTypes.contains(card.getPrepaidType())) {
+        return false;
+      }
+      if (postalCodePrefixes != null) {
+        String postalCode = card.getPostalCode();
+        if (postalCode == null) {
+          return false;
+        }
+        String normalized = normalizePostalCode(postalCode);
+        for (String prefix : postalCodePrefixes) {
+          if (normalized.startsWith(prefix)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      return true;
+    }
+
+    private static <E extends Enum<E>> EnumSet<E> enumSet(Class<E> type, Object value, String name) {
+      if (value == null) {
+        return null;
+      }
+      if (!(value instanceof List)) {
+        throw new IllegalArgumentException(name + " must be a List.");
+      }
+      EnumSet<E> set = EnumSet.noneOf(type);
+      for (Object item : (List<?>) value) {
+        try {
+          set.add(Enum.valueOf(type, String.valueOf(item)));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException(name + ": unknown value " + item + ".");
+        }
+      }
+      return set;
+    }
+
+    private static String[] postalCodePrefixes(Object value) {
+      if (value == null) {
+        return null;
+      }
+      if (!(value instanceof List)) {
+        throw new IllegalArgumentException("postalCodePrefixes must be a List.");
+      }
+      List<?> list = (List<?>) value;
+      String[] prefixes = new String[list.size()];
+      for (int i = 0; i < prefixes.length; i++) {
+        prefixes[i] = normalizePostalCode(String.valueOf(list.get(i)));
+      }
+      return prefixes;
+    }
+
+    private static String normalizePostalCode(String postalCode) {
+      return postalCode.replace(" ", "").toUpperCase(Locale.ROOT);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package sqip.flutter.internal;
+
+import android.app.Activity;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.view.animation.Animation;
+
+import java.lang.ref.WeakReference;
+
+import static android.view.animation.AnimationUtils.loadAnimation;
+
+/**
+ * Duration of the card entry close animation, resolved once per activity and configuration.
+ * {@link #prefetch} resolves it on the {@link BackgroundThread} when the activity is attached so
+ * that delivering cardEntryComplete and cardEntryCancel does not inflate resources on the main
+ * thread.
+ */
+final class CardEntryCloseAnimationDelay {
+
+  private volatile Resolved resolved;
+
+  void prefetch(Activity activity) {
+    resolved = null;
+    WeakReference<Activity> activityReference = new WeakReference<>(activity);
+    BackgroundThread.executor.execute(() -> {
+      Activity target = activityReference.get();
+      if (target != null && !target.isFinishing()) {
+        get(target);
+      }
+    });
+  }
+
+  /** Returns the cached duration, resolving it on the calling thread if it is missing or stale. */
+  long get(Activity activity) {
+    Configuration configuration = activity.getResources().getConfiguration();
+    Resolved current = resolved;
+    if (current != null && current.activity.get() == activity && current.configuration.equals(configuration)) {
+      return current.delayMs;
+    }
+    long delayMs = readDurationMs(activity);
+    resolved = new Resolved(activity, new Configuration(configuration), delayMs);
+    return delayMs;
+  }
+
+  private static long readDurationMs(Activity activity) {
+    boolean traced = PluginTrace.begin("sqip:readCardEntryCloseExitAnimationDurationMs");
+    try {
+      return readCardEntryCloseExitAnimationDurationMs(activity);
+    } finally {
+      PluginTrace.end(traced);
+    }
+  }
+
+  private static long readCardEntryCloseExitAnimationDurationMs(Activity activity) {
+    long delay = 0;
+    Resources.Theme theme = activity.getResources().newTheme();
+    theme.applyStyle(sqip.cardentry.R.style.sqip_Theme_CardEntry, true);
+    int[] attrs = { android.R.attr.activityCloseExitAnimation };
+    TypedArray typedArray = theme.obtainStyledAttributes(null, attrs, android.R.attr.windowAnimationStyle, 0);
+    int resId = typedArray.getResourceId(0, -1);
+    if (resId != -1) {
+      try {
+        Animation animation = loadAnimation(activity, resId);
+        delay = animation.getDuration();
+      } catch (Resources.NotFoundException ignored) {}
+    }
+    typedArray.recycle();
+    return delay;
+  }
+
+  private static final class Resolved {
+    final WeakReference<Activity> activity;
+    final Configuration configuration;
+    final long delayMs;
+
+    Resolved(Activity activity, Configuration configuration, long delayMs) {
+      this.activity = new WeakReference<>(activity);
+      this.configuration = configuration;
+      this.delayMs = delayMs;
+    }
+  }
+}
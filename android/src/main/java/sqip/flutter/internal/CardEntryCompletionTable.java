@@ -0,0 +1,77 @@
+package sqip.flutter.internal;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sqip.CardEntryActivityCommand;
+
+/**
+ * Pending card nonce completions keyed by the correlation ID sent to Dart with
+ * cardEntryDidObtainCardDetails. A completion for an ID that is no longer pending (already
+ * completed, timed out or cancelled), or without an ID, is rejected instead of resolving another
+ * entry.
+ */
+final class CardEntryCompletionTable {
+
+  private final Map<String, CompletableFuture<CardEntryActivityCommand>> pending = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong();
+
+  String register() {
+    String correlationId = String.valueOf(nextId.incrementAndGet());
+    pending.put(correlationId, new CompletableFuture<>());
+    return correlationId;
+  }
+
+  /**
+   * Blocks the calling SDK worker thread until the entry is completed or the deadline passes.
+   * Returns {@code fallback} on timeout, interruption or cancellation.
+   */
+  CardEntryActivityCommand await(String correlationId, long deadlineMs, CardEntryActivityCommand fallback) {
+    CompletableFuture<CardEntryActivityCommand> future = pending.get(correlationId);
+    if (future == null) {
+      return fallback;
+    }
+    try {
+      return deadlineMs > 0 ? future.get(deadlineMs, TimeUnit.MILLISECONDS) : future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return fallback;
+    } catch (CancellationException | ExecutionException | TimeoutException e) {
+      return fallback;
+    } finally {
+      pending.remove(correlationId, future);
+    }
+  }
+
+  /**
+   * Resolves a pending entry.
+   *
+   * @return false when the ID is null, stale or unknown.
+   */
+  boolean complete(String correlationId, CardEntryActivityCommand command) {
+    if (correlationId == null) {
+      return false;
+    }
+    CompletableFuture<CardEntryActivityCommand> future = pending.remove(correlationId);
+    if (future == null) {
+      return false;
+    }
+    return future.complete(command);
+  }
+
+  /** Releases every parked worker thread with its fallback command. */
+  void cancelAll() {
+    for (String correlationId : pending.keySet()) {
+      CompletableFuture<CardEntryActivityCommand> future = pending.remove(correlationId);
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+}
@@ -1,230 +1,329 @@
 package sqip.flutter.internal;
 
 import android.app.Activity;
-import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
-import android.content.res.TypedArray;
-import android.os.Handler;
-import android.os.Looper;
-import android.view.animation.Animation;
-
-import java.lang.reflect.Method;
-import java.util.LinkedHashMap;
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
 import java.util.Map;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicReference;
 
-import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
 import io.flutter.plugin.common.MethodChannel;
-import sqip.BuyerVerification;
 import sqip.Callback;
 import sqip.CardDetails;
-import sqip.CardEntry;
 import sqip.CardEntryActivityCommand;
 import sqip.CardEntryActivityResult;
-import sqip.CardNonceBackgroundHandler;
 import sqip.BuyerVerificationResult.Error;
 import sqip.SquareIdentifier;
 import sqip.BuyerAction;
 import sqip.Contact;
-import sqip.Country;
-import sqip.Money;
 import sqip.VerificationParameters;
-import sqip.flutter.R;
-import sqip.flutter.internal.converter.CardConverter;
-import sqip.flutter.internal.converter.CardDetailsConverter;
-
-import static android.view.animation.AnimationUtils.loadAnimation;
-
-public final class CardEntryModule {
-
-  private Activity currentActivity;
-  private MethodChannel channel;
-  private final CardDetailsConverter cardDetailsConverter;
-  private final AtomicReference<CardEntryActivityCommand> reference;
-  private final Handler handler;
-  private volatile CountDownLatch countDownLatch;
-  private SquareIdentifier squareIdentifier;
-  private BuyerAction buyerAction;
-  private Contact contact;
-  private CardDetails cardResult;
-  private String paymentSourceId;
-
-  public CardEntryModule(Context context, MethodChannel channel) {
-    this.channel = channel;
-    this.reference = new AtomicReference<>();
-    this.handler = new Handler(Looper.getMainLooper());
-    this.cardDetailsConverter = new CardDetailsConverter(new CardConverter());
-
-    CardEntry.setCardNonceBackgroundHandler(new CardNonceBackgroundHandler() {
-      @Override
-      public CardEntryActivityCommand handleEnteredCardInBackground(CardDetails cardDetails) {
-        if (CardEntryModule.this.contact != null) {
-          return new CardEntryActivityCommand.Finish();
-        }
 
-        final Map<String, Object> mapToReturn = cardDetailsConverter.toMapObject(cardDetails);
-        countDownLatch = new CountDownLatch(1);
-        currentActivity.runOnUiThread(() -> channel.invokeMethod("cardEntryDidObtainCardDetails", mapToReturn));
+public final class CardEntryModule implements FlowRouter.Owner {
 
-        try {
-          countDownLatch.await();
-        } catch (InterruptedException e) {
-          throw new RuntimeException(e);
-        }
+  private static final long DEFAULT_CARD_NONCE_DEADLINE_MS = 120_000;
 
-        return reference.get();
-      }
-    });
+  private final PaymentsSdk sdk;
+  private volatile WeakReference<Activity> currentActivity = new WeakReference<>(null);
+  private final CardResultChannel resultChannel;
+  private final CardEntryCompletionTable completionTable;
+  private final ActivityResultProcessor resultProcessor;
+  private final CardEntryCloseAnimationDelay closeAnimationDelay;
+  private final FlowTimings flowTimings;
+  private volatile long cardNonceDeadlineMs = DEFAULT_CARD_NONCE_DEADLINE_MS;
+  private volatile String cardNonceFallbackErrorMessage;
+  private volatile CardAcceptanceRules acceptanceRules = CardAcceptanceRules.NONE;
+  private final FlowRouter router = FlowRouter.INSTANCE;
+  // The verification in progress, replaced as a whole so that readers on the SDK and result
+  // threads never see fields from two different flows; null during plain card entry.
+  private volatile Verification verification;
+
+  public CardEntryModule(PaymentsSdk sdk, CardResultChannel resultChannel, FlowTimings flowTimings) {
+    this.sdk = sdk;
+    this.resultChannel = resultChannel;
+    this.completionTable = new CardEntryCompletionTable();
+    this.resultProcessor = new ActivityResultProcessor();
+    this.closeAnimationDelay = new CardEntryCloseAnimationDelay();
+    this.flowTimings = flowTimings;
+    router.install(sdk);
   }
 
-  public void attachActivityResultListener(ActivityPluginBinding activityPluginBinding, MethodChannel channel) {
-    this.currentActivity = activityPluginBinding.getActivity();
-    activityPluginBinding.addActivityResultListener((requestCode, resultCode, data) -> {
-      if (requestCode == CardEntry.DEFAULT_CARD_ENTRY_REQUEST_CODE) {
-        CardEntry.handleActivityResult(data, cardEntryActivityResult -> {
-          if (cardEntryActivityResult.isSuccess() && CardEntryModule.this.contact != null) {
-            cardResult = cardEntryActivityResult.getSuccessValue();
-            String nonce = cardResult.getNonce();
-            VerificationParameters params = new VerificationParameters(nonce, buyerAction, squareIdentifier, contact);
-            BuyerVerification.verify(currentActivity, params);
-          } else {
-            long delayMs = readCardEntryCloseExitAnimationDurationMs();
-            handler.postDelayed(() -> {
-              if (cardEntryActivityResult.isCanceled()) {
-                channel.invokeMethod("cardEntryCancel", null);
-              } else if (cardEntryActivityResult.isSuccess()) {
-                channel.invokeMethod("cardEntryComplete", null);
-              }
-            }, delayMs);
-          }
-        });
+  /** Called by the router, on an SDK thread, while this module's card entry is showing. */
+  @Override
+  public CardEntryActivityCommand handleEnteredCardInBackground(CardDetails cardDetails) {
+    CardEntryActivityCommand decided = acceptanceRules.evaluate(cardDetails.getCard());
+    if (decided != null) {
+      FlightRecorder.record("acceptanceRule", FlowRouter.Flow.CARD_ENTRY.name(), commandName(decided));
+    }
+    if (verification != null) {
+      // Accepted cards go on to verification, which delivers them.
+      return decided != null ? decided : new CardEntryActivityCommand.Finish();
+    }
+
+    flowTimings.stage(FlowTimings.Flow.CARD_ENTRY, "cardDetails");
+    if (decided != null) {
+      if (decided instanceof CardEntryActivityCommand.Finish) {
+        // No correlation ID: there is nothing for Dart to complete.
+        resultChannel.sendCardEntryDidObtainCardDetails(cardDetails, null, true);
       }
+      return decided;
+    }
+    final String correlationId = completionTable.register();
+    FlightRecorder.record("awaitCompletion", FlowRouter.Flow.CARD_ENTRY.name(), correlationId);
+    resultChannel.sendCardEntryDidObtainCardDetails(cardDetails, correlationId, false);
 
-      if (requestCode == BuyerVerification.DEFAULT_BUYER_VERIFICATION_REQUEST_CODE) {
-        BuyerVerification.handleActivityResult(data, result -> {
-          if (result.isSuccess()) {
-            Map<String, Object> payload = new LinkedHashMap<>();
-            if (paymentSourceId == null) {
-              payload = cardDetailsConverter.toMapObject(cardResult);
-              payload.put("token", result.getSuccessValue().getVerificationToken());
-            } else {
-              payload.put("nonce", paymentSourceId);
-              payload.put("token", result.getSuccessValue().getVerificationToken());
-            }
-            channel.invokeMethod("onBuyerVerificationSuccess", payload);
-          } else if (result.isError()) {
-            Error error = result.getErrorValue();
-            Map<String, String> errorMap = ErrorHandlerUtils.getCallbackErrorObject(
-                error.getCode().name(),
-                error.getMessage(),
-                error.getDebugCode(),
-                error.getDebugMessage());
-            channel.invokeMethod("onBuyerVerificationError", errorMap);
-          }
-        });
+    CardEntryActivityCommand command;
+    boolean traced = PluginTrace.begin("sqip:awaitCardEntryCompletion");
+    try {
+      command = completionTable.await(correlationId, cardNonceDeadlineMs, null);
+    } finally {
+      PluginTrace.end(traced);
+    }
+    if (command == null) {
+      FlightRecorder.record("completionTimedOut", FlowRouter.Flow.CARD_ENTRY.name(), correlationId);
+      return getCardNonceFallbackCommand();
+    }
+    FlightRecorder.record("completed", FlowRouter.Flow.CARD_ENTRY.name(), correlationId);
+    return command;
+  }
 
-        this.contact = null;
-      }
+  private static String commandName(CardEntryActivityCommand command) {
+    return command instanceof CardEntryActivityCommand.Finish ? "finish" : "showError";
+  }
+
+  public void attachActivity(Activity activity) {
+    this.currentActivity = new WeakReference<>(activity);
+    closeAnimationDelay.prefetch(activity);
+  }
 
+  /** Resolves the close animation duration on the calling thread; false if there is no activity. */
+  public boolean prewarmCloseAnimation() {
+    Activity activity = currentActivity.get();
+    if (activity == null || activity.isFinishing()) {
       return false;
+    }
+    closeAnimationDelay.get(activity);
+    return true;
+  }
+
+  public void detachActivity() {
+    currentActivity.clear();
+  }
+
+  /** Releases the flows this module owns and any card entry waiting on Dart. */
+  public void dispose() {
+    router.releaseAll(this);
+    completionTable.cancelAll();
+  }
+
+  @Override
+  public void onFlowResult(FlowRouter.Flow flow, int resultCode, Intent data) {
+    if (flow == FlowRouter.Flow.CARD_ENTRY) {
+      long receivedAt = SystemClock.uptimeMillis();
+      resultProcessor.process(() -> handleCardEntryResult(data, receivedAt));
+    } else if (flow == FlowRouter.Flow.BUYER_VERIFICATION) {
+      resultProcessor.process(() -> handleBuyerVerificationResult(data));
+    }
+  }
+
+  private void handleCardEntryResult(Intent data, long receivedAt) {
+    sdk.handleCardEntryResult(data, cardEntryActivityResult -> {
+      FlightRecorder.record("sdkCallback", FlowRouter.Flow.CARD_ENTRY.name(), cardEntryActivityResult.isSuccess()
+          ? "success" : cardEntryActivityResult.isCanceled() ? "canceled" : "other");
+      Verification current = verification;
+      if (cardEntryActivityResult.isSuccess() && current != null) {
+        flowTimings.stage(FlowTimings.Flow.BUYER_VERIFICATION, "cardEntry");
+        Verification withCard = current.withCardResult(cardEntryActivityResult.getSuccessValue());
+        verification = withCard;
+        if (!router.start(FlowRouter.Flow.BUYER_VERIFICATION, this)) {
+          finishVerification(ErrorCatalog.FLOW_IN_PROGRESS.debugCode);
+          resultChannel.send("onBuyerVerificationError", ErrorCatalog.FLOW_IN_PROGRESS.callbackErrorObject());
+          return;
+        }
+        if (withCard.pipelined) {
+          // The backend can start on the nonce while the buyer completes the challenge.
+          resultChannel.sendBuyerVerificationCardDetails(withCard.cardResult);
+        }
+        VerificationParameters params = withCard.parameters(withCard.cardResult.getNonce());
+        resultProcessor.runOnMainThread(() -> sdk.startBuyerVerification(currentActivity.get(), params));
+      } else {
+        // Deliver once the close animation ends, counted from when the result arrived.
+        Activity activity = currentActivity.get();
+        long delayMs = activity != null ? closeAnimationDelay.get(activity) : 0;
+        FlowTimings.Flow flow = current != null ? FlowTimings.Flow.BUYER_VERIFICATION : FlowTimings.Flow.CARD_ENTRY;
+        verification = null;
+        resultProcessor.runOnMainThreadAt(() -> {
+          if (cardEntryActivityResult.isCanceled()) {
+            flowTimings.finish(flow, FlowTimings.OUTCOME_CANCEL);
+            resultChannel.send("cardEntryCancel", null);
+          } else if (cardEntryActivityResult.isSuccess()) {
+            flowTimings.finish(flow, FlowTimings.OUTCOME_SUCCESS);
+            resultChannel.send("cardEntryComplete", null);
+          }
+        }, receivedAt + delayMs);
+      }
+    });
+  }
+
+  private void handleBuyerVerificationResult(Intent data) {
+    Verification current = verification;
+    verification = null;
+    if (current == null) {
+      FlightRecorder.record("dropped", FlowRouter.Flow.BUYER_VERIFICATION.name(), "noVerification");
+      return;
+    }
+    sdk.handleBuyerVerificationResult(data, result -> {
+      FlightRecorder.record("sdkCallback", FlowRouter.Flow.BUYER_VERIFICATION.name(),
+          result.isSuccess() ? "success" : result.isError() ? result.getErrorValue().getCode().name() : "other");
+      flowTimings.stage(FlowTimings.Flow.BUYER_VERIFICATION, "verification");
+      if (result.isSuccess()) {
+        flowTimings.finish(FlowTimings.Flow.BUYER_VERIFICATION, FlowTimings.OUTCOME_SUCCESS);
+        String token = result.getSuccessValue().getVerificationToken();
+        if (current.pipelined) {
+          // The card was already sent; the nonce correlates the token with it.
+          resultChannel.sendBuyerVerificationSuccess(current.cardResult.getNonce(), token);
+        } else if (current.paymentSourceId == null) {
+          resultChannel.sendBuyerVerificationSuccess(current.cardResult, token);
+        } else {
+          resultChannel.sendBuyerVerificationSuccess(current.paymentSourceId, token);
+        }
+      } else if (result.isError()) {
+        Error error = result.getErrorValue();
+        flowTimings.finish(FlowTimings.Flow.BUYER_VERIFICATION, error.getCode().name());
+        ErrorCatalog.count(error.getDebugCode());
+        Map<String, String> errorMap = ErrorHandlerUtils.getCallbackErrorObject(
+            error.getCode().name(),
+            error.getMessage(),
+            error.getDebugCode(),
+            error.getDebugMessage());
+        resultChannel.send("onBuyerVerificationError", errorMap);
+      }
     });
   }
 
+  private void finishVerification(String outcome) {
+    verification = null;
+    flowTimings.finish(FlowTimings.Flow.BUYER_VERIFICATION, outcome);
+  }
+
   public void startCardEntryFlow(MethodChannel.Result result, boolean collectPostalCode) {
-    CardEntry.startCardEntryActivity(currentActivity, collectPostalCode);
+    if (!router.start(FlowRouter.Flow.CARD_ENTRY, this)) {
+      ErrorCatalog.reject(result, ErrorCatalog.FLOW_IN_PROGRESS);
+      return;
+    }
+    verification = null;
+    flowTimings.start(FlowTimings.Flow.CARD_ENTRY);
+    sdk.startCardEntryActivity(currentActivity.get(), collectPostalCode);
     result.success(null);
   }
 
-  public void completeCardEntry(MethodChannel.Result result) {
-    reference.set(new CardEntryActivityCommand.Finish());
-    countDownLatch.countDown();
+  public void completeCardEntry(MethodChannel.Result result, String correlationId) {
+    completePendingCardEntry(result, correlationId, new CardEntryActivityCommand.Finish());
+  }
+
+  public void showCardNonceProcessingError(MethodChannel.Result result, String correlationId, String errorMessage) {
+    completePendingCardEntry(result, correlationId, new CardEntryActivityCommand.ShowError(errorMessage));
+  }
+
+  public void setCardAcceptanceRules(MethodChannel.Result result, CardAcceptanceRules rules) {
+    this.acceptanceRules = rules;
     result.success(null);
   }
 
-  public void showCardNonceProcessingError(MethodChannel.Result result, String errorMessage) {
-    reference.set(new CardEntryActivityCommand.ShowError(errorMessage));
-    countDownLatch.countDown();
+  public void setCardNonceProcessingDeadline(MethodChannel.Result result, long deadlineMs, String fallbackErrorMessage) {
+    this.cardNonceDeadlineMs = deadlineMs;
+    this.cardNonceFallbackErrorMessage = fallbackErrorMessage;
     result.success(null);
   }
 
   public void startGiftCardEntryFlow(MethodChannel.Result result) {
-    CardEntry.startGiftCardEntryActivity(currentActivity);
+    if (!router.start(FlowRouter.Flow.CARD_ENTRY, this)) {
+      ErrorCatalog.reject(result, ErrorCatalog.FLOW_IN_PROGRESS);
+      return;
+    }
+    verification = null;
+    flowTimings.start(FlowTimings.Flow.CARD_ENTRY);
+    sdk.startGiftCardEntryActivity(currentActivity.get());
     result.success(null);
   }
 
-  public void startCardEntryFlowWithBuyerVerification(MethodChannel.Result result, boolean collectPostalCode, String squareLocationId, String buyerActionString, Map<String, Object> moneyMap, Map<String, Object> contactMap) {
-    this.squareIdentifier = new SquareIdentifier.LocationToken(squareLocationId);
-    Money money = getMoney(moneyMap);
-    this.buyerAction = getBuyerAction(buyerActionString, money);
-    this.contact = getContact(contactMap);
-    this.paymentSourceId = null;
+  /**
+   * @param pipelined send the card and nonce as soon as card entry succeeds, followed by a
+   *     nonce-and-token success or an error once verification ends.
+   */
+  public void startCardEntryFlowWithBuyerVerification(MethodChannel.Result result, boolean collectPostalCode,
+      VerificationArguments arguments, boolean pipelined) {
+    if (!router.start(FlowRouter.Flow.CARD_ENTRY, this)) {
+      ErrorCatalog.reject(result, ErrorCatalog.FLOW_IN_PROGRESS);
+      return;
+    }
+    verification = new Verification(arguments, null, null, pipelined);
 
-    CardEntry.startCardEntryActivity(currentActivity, collectPostalCode);
+    flowTimings.start(FlowTimings.Flow.BUYER_VERIFICATION);
+    sdk.startCardEntryActivity(currentActivity.get(), collectPostalCode);
     result.success(null);
   }
 
-  public void startBuyerVerificationFlow(MethodChannel.Result result, String buyerActionString, Map<String, Object> moneyMap, String squareLocationId, Map<String, Object> contactMap, String paymentSourceId) {
-    this.squareIdentifier = new SquareIdentifier.LocationToken(squareLocationId);
-    Money money = getMoney(moneyMap);
-    this.buyerAction = getBuyerAction(buyerActionString, money);
-    this.contact = getContact(contactMap);
-    this.paymentSourceId = paymentSourceId;
+  public void startBuyerVerificationFlow(MethodChannel.Result result, VerificationArguments arguments, String paymentSourceId) {
+    if (!router.start(FlowRouter.Flow.BUYER_VERIFICATION, this)) {
+      ErrorCatalog.reject(result, ErrorCatalog.FLOW_IN_PROGRESS);
+      return;
+    }
+    Verification started = new Verification(arguments, paymentSourceId, null, false);
+    verification = started;
+
+    flowTimings.start(FlowTimings.Flow.BUYER_VERIFICATION);
+    sdk.startBuyerVerification(currentActivity.get(), started.parameters(paymentSourceId));
+    result.success(null);
+  }
 
-    VerificationParameters params = new VerificationParameters(paymentSourceId, buyerAction, squareIdentifier, contact);
-    BuyerVerification.verify(currentActivity, params);
+  private void completePendingCardEntry(MethodChannel.Result result, String correlationId, CardEntryActivityCommand command) {
+    if (!completionTable.complete(correlationId, command)) {
+      ErrorCatalog.reject(result, ErrorCatalog.CARD_ENTRY_STALE_COMPLETION);
+      return;
+    }
+    flowTimings.stage(FlowTimings.Flow.CARD_ENTRY, "nonceProcessing");
     result.success(null);
   }
 
-  private Contact getContact(Map<String, Object> contactMap) {
-    Object givenName = contactMap.get("givenName");
-    Object familyName = contactMap.get("familyName");
-    Object addressLines = contactMap.get("addressLines");
-    Object city = contactMap.get("city");
-    Object countryCode = contactMap.get("countryCode");
-    Object email = contactMap.get("email");
-    Object phone = contactMap.get("phone");
-    Object postalCode = contactMap.get("postalCode");
-    Object region = contactMap.get("region");
-    Country country = Country.valueOf((countryCode != null) ? countryCode.toString() : "US");
-
-    return new Contact.Builder()
-        .familyName((familyName != null) ? familyName.toString() : "")
-        .email((email != null) ? email.toString() : "")
-        .addressLines((addressLines != null) ? (ArrayList<String>) addressLines : new ArrayList<>())
-        .city((city != null) ? city.toString() : "")
-        .countryCode(country)
-        .postalCode((postalCode != null) ? postalCode.toString() : "")
-        .phone((phone != null) ? phone.toString() : "")
-        .region((region != null) ? region.toString() : "")
-        .build((givenName != null) ? givenName.toString() : "");
-  }
-
-  private Money getMoney(Map<String, Object> moneyMap) {
-    return new Money((Integer) moneyMap.get("amount"), sqip.Currency.valueOf((String) moneyMap.get("currencyCode")));
-  }
-
-  private BuyerAction getBuyerAction(String buyerActionString, Money money) {
-    return buyerActionString.equals("Store") ? new BuyerAction.Store() : new BuyerAction.Charge(money);
-  }
-
-  private long readCardEntryCloseExitAnimationDurationMs() {
-    long delay = 0;
-    Resources.Theme theme = currentActivity.getResources().newTheme();
-    theme.applyStyle(sqip.cardentry.R.style.sqip_Theme_CardEntry, true);
-    int[] attrs = { android.R.attr.activityCloseExitAnimation };
-    TypedArray typedArray = theme.obtainStyledAttributes(null, attrs, android.R.attr.windowAnimationStyle, 0);
-    int resId = typedArray.getResourceId(0, -1);
-    if (resId != -1) {
-      try {
-        Animation animation = loadAnimation(currentActivity, resId);
-        delay = animation.getDuration();
-      } catch (Resources.NotFoundException ignored) {}
-    }
-    typedArray.recycle();
-    return delay;
+  private CardEntryActivityCommand getCardNonceFallbackCommand() {
+    String errorMessage = cardNonceFallbackErrorMessage;
+    if (errorMessage == null) {
+      ErrorCatalog.count(ErrorCatalog.FL_CARD_ENTRY_NONCE_TIMEOUT);
+      errorMessage = ErrorCatalog.pluginErrorMessage(ErrorCatalog.FL_CARD_ENTRY_NONCE_TIMEOUT);
+    }
+    return new CardEntryActivityCommand.ShowError(errorMessage);
+  }
+
+  /** The arguments of a verification flow and, once entered, the card being verified. */
+  private static final class Verification {
+    final SquareIdentifier squareIdentifier;
+    final BuyerAction buyerAction;
+    final Contact contact;
+    final String paymentSourceId;
+    final CardDetails cardResult;
+    final boolean pipelined;
+
+    Verification(VerificationArguments arguments, String paymentSourceId, CardDetails cardResult, boolean pipelined) {
+      this(new SquareIdentifier.LocationToken(arguments.squareLocationId), arguments.buyerAction, arguments.contact,
+          paymentSourceId, cardResult, pipelined);
+    }
+
+    private Verification(SquareIdentifier squareIdentifier, BuyerAction buyerAction, Contact contact,
+        String paymentSourceId, CardDetails cardResult, boolean pipelined) {
+      this.squareIdentifier = squareIdentifier;
+      this.buyerAction = buyerAction;
+      this.contact = contact;
+      this.paymentSourceId = paymentSourceId;
+      this.cardResult = cardResult;
+      this.pipelined = pipelined;
+    }
+
+    Verification withCardResult(CardDetails cardResult) {
+      return new Verification(squareIdentifier, buyerAction, contact, paymentSourceId, cardResult, pipelined);
+    }
+
+    VerificationParameters parameters(String paymentSourceIdOrNonce) {
+      return new VerificationParameters(paymentSourceIdOrNonce, buyerAction, squareIdentifier, contact);
+    }
   }
 }
@@ -0,0 +1,153 @@
+package sqip.flutter.internal;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import sqip.CardDetails;
+import sqip.flutter.internal.converter.CardConverter;
+import sqip.flutter.internal.converter.CardDetailsConverter;
+import sqip.flutter.internal.converter.CompactCardDetailsEncoder;
+
+/**
+ * Delivers flow events and card and nonce results to Dart through {@link FlowEventStream}.
+ * Results are sent as the default nested maps or, once compact encoding is selected, as a single
+ * binary payload of a {@code compactResult} event. The compact payload is still one byte array
+ * per result: the codec only writes byte arrays, not buffers.
+ */
+public final class CardResultChannel {
+
+  public static final String ENCODING_MAP = "map";
+  public static final String ENCODING_COMPACT = "compact";
+
+  private static final String COMPACT_RESULT = "compactResult";
+  private static final String TRACE_CONVERT_CARD_DETAILS = "sqip:CardDetailsConverter.toMapObject";
+  private static final String TRACE_ENCODE_COMPACT = "sqip:CompactCardDetailsEncoder.encode";
+
+  // The converter and encoder are created by the first result that needs them, not at attach, and
+  // are shared by every engine.
+  private static final class MapConverter {
+    static final CardDetailsConverter INSTANCE = new CardDetailsConverter(new CardConverter());
+  }
+
+  private static final class CompactEncoder {
+    static final CompactCardDetailsEncoder INSTANCE = new CompactCardDetailsEncoder();
+  }
+
+  private final FlowEventStream events;
+  private volatile boolean compactEncoding;
+
+  public CardResultChannel(BinaryMessenger messenger) {
+    this.events = new FlowEventStream(messenger);
+  }
+
+  /** Creates the shared converter and encoder ahead of the first result. */
+  public static void prewarm() {
+    MapConverter.INSTANCE.getClass();
+    CompactEncoder.INSTANCE.getClass();
+  }
+
+  public void setEncoding(String encoding) {
+    this.compactEncoding = ENCODING_COMPACT.equals(encoding);
+  }
+
+  /** Sends an event that carries no card result and ends its flow. May be called from any thread. */
+  void send(String method, Object arguments) {
+    events.emit(method, arguments, true);
+  }
+
+  /**
+   * @param acceptedNatively whether a card acceptance rule already finished card entry, so Dart
+   *     has nothing to complete.
+   */
+  void sendCardEntryDidObtainCardDetails(CardDetails cardDetails, String correlationId, boolean acceptedNatively) {
+    if (compactEncoding) {
+      sendCompact(CompactCardDetailsEncoder.EVENT_CARD_ENTRY_DID_OBTAIN_CARD_DETAILS, cardDetails, correlationId, null,
+          acceptedNatively, correlationId != null);
+      return;
+    }
+    Map<String, Object> payload = toMapObject(cardDetails);
+    payload.put("correlationId", correlationId);
+    payload.put("acceptedNatively", acceptedNatively);
+    // Card entry waits for Dart to complete an entry with a correlation ID.
+    events.emit("cardEntryDidObtainCardDetails", payload, correlationId != null);
+  }
+
+  void sendGooglePayNonceRequestSuccess(CardDetails cardDetails) {
+    if (compactEncoding) {
+      sendCompact(CompactCardDetailsEncoder.EVENT_GOOGLE_PAY_NONCE_REQUEST_SUCCESS, cardDetails, null, null, false, true);
+      return;
+    }
+    events.emit("onGooglePayNonceRequestSuccess", toMapObject(cardDetails), true);
+  }
+
+  /** Sends the card being verified ahead of the verification result, in pipelined mode. */
+  void sendBuyerVerificationCardDetails(CardDetails cardDetails) {
+    if (compactEncoding) {
+      sendCompact(CompactCardDetailsEncoder.EVENT_BUYER_VERIFICATION_CARD_DETAILS, cardDetails, null, null, false, false);
+      return;
+    }
+    events.emit("onBuyerVerificationCardDetails", toMapObject(cardDetails), false);
+  }
+
+  void sendBuyerVerificationSuccess(CardDetails cardDetails, String token) {
+    if (compactEncoding) {
+      sendCompact(CompactCardDetailsEncoder.EVENT_BUYER_VERIFICATION_SUCCESS, cardDetails, null, token, false, true);
+      return;
+    }
+    Map<String, Object> payload = toMapObject(cardDetails);
+    payload.put("token", token);
+    events.emit("onBuyerVerificationSuccess", payload, true);
+  }
+
+  void sendBuyerVerificationSuccess(String nonce, String token) {
+    if (compactEncoding) {
+      CompactCardDetailsEncoder compactEncoder = CompactEncoder.INSTANCE;
+      boolean traced = PluginTrace.begin(TRACE_ENCODE_COMPACT);
+      try {
+        synchronized (compactEncoder) {
+          events.emit(COMPACT_RESULT, toBytes(compactEncoder.encode(CompactCardDetailsEncoder.EVENT_BUYER_VERIFICATION_SUCCESS, nonce, null, null, token, false)), true);
+        }
+      } finally {
+        PluginTrace.end(traced);
+      }
+      return;
+    }
+    Map<String, Object> payload = new LinkedHashMap<>();
+    payload.put("nonce", nonce);
+    payload.put("token", token);
+    events.emit("onBuyerVerificationSuccess", payload, true);
+  }
+
+  private void sendCompact(int event, CardDetails cardDetails, String correlationId, String token, boolean acceptedNatively,
+      boolean terminal) {
+    CompactCardDetailsEncoder compactEncoder = CompactEncoder.INSTANCE;
+    boolean traced = PluginTrace.begin(TRACE_ENCODE_COMPACT);
+    try {
+      synchronized (compactEncoder) {
+        events.emit(COMPACT_RESULT, toBytes(compactEncoder.encode(event, cardDetails, correlationId, token, acceptedNatively)), terminal);
+      }
+    } finally {
+      PluginTrace.end(traced);
+    }
+  }
+
+  static Map<String, Object> toMapObject(CardDetails cardDetails) {
+    boolean traced = PluginTrace.begin(TRACE_CONVERT_CARD_DETAILS);
+    try {
+      return MapConverter.INSTANCE.toMapObject(cardDetails);
+    } finally {
+      PluginTrace.end(traced);
+    }
+  }
+
+  // The encoder reuses one buffer, and the event is only encoded on the next frame, so each result
+  // needs its own copy.
+  private static byte[] toBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,402 @@
+package sqip.flutter.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.StandardMessageCodec;
+import sqip.BuyerAction;
+import sqip.Contact;
+import sqip.Money;
+
+/**
+ * Opt-in recording of the plugin's channel traffic, for replaying it against another plugin
+ * version: every method call with the channel it arrived on, its result, and every event sent to
+ * Dart, with the time since the previous record. Recording covers every engine in the process.
+ *
+ * <p>When recording is off, a record costs one volatile read. When it is on, the calling thread
+ * only takes the time; redaction, encoding and writing happen on the {@link BackgroundThread}.
+ *
+ * <p>A trace is {@link #MAGIC}, a version byte, then one record after another: a kind byte, the
+ * microseconds since the previous record and the method as varints, and the length-prefixed
+ * {@link StandardMessageCodec} encoding of the redacted arguments. A method is written as its
+ * index in the trace's method table, followed by its name the first time it appears.
+ *
+ * <p>Redaction keeps the structure and sizes of payloads but not their content: strings become
+ * asterisks of the same length unless their key is one of {@link #KEPT_KEYS}, byte arrays are
+ * zeroed, and expiration dates become 0. Verification arguments read as SDK objects are written
+ * in their map form.
+ */
+public final class ChannelRecorder {
+
+  public static final byte MAIN_CALL = 0;
+  public static final byte BACKGROUND_CALL = 1;
+  public static final byte SUCCESS = 2;
+  public static final byte ERROR = 3;
+  public static final byte EVENT = 4;
+
+  static final String FL_CHANNEL_RECORDING_FAILED = "fl_channel_recording_failed";
+  public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+  private static final byte[] MAGIC = { 'S', 'Q', 'T', 'R' };
+  private static final int VERSION = 1;
+  private static final String TRACE_DIRECTORY = "sqip_channel_traces";
+
+  // Enum names, codes and amounts: nothing that identifies a buyer or a card.
+  private static final Set<String> KEPT_KEYS = new HashSet<>(Arrays.asList(
+      "action", "brand", "brands", "buyerAction", "code", "correlationId", "countryCode", "currencyCode",
+      "debugCode", "encoding", "errorCode", "prepaidType", "prepaidTypes", "price", "type", "types"));
+  private static final Set<String> ZEROED_KEYS = new HashSet<>(Arrays.asList("expirationMonth", "expirationYear"));
+
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private static final Object lock = new Object();
+  private static volatile Session session;
+
+  private ChannelRecorder() {}
+
+  /**
+   * Starts recording to a new trace in the cache directory, unless already recording, and replies
+   * with the path of the trace being written.
+   */
+  public static void start(MethodChannel.Result result, File cacheDirectory, long maxBytes) {
+    String path;
+    synchronized (lock) {
+      Session current = session;
+      if (current == null) {
+        File directory = new File(cacheDirectory, TRACE_DIRECTORY);
+        File file = new File(directory, "channel-" + System.currentTimeMillis() + ".sqtrace");
+        try {
+          if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory + ".");
+          }
+          current = new Session(file, maxBytes);
+        } catch (IOException e) {
+          ErrorCatalog.reject(result, FL_CHANNEL_RECORDING_FAILED, "Cannot start recording: " + e.getMessage());
+          return;
+        }
+        session = current;
+      }
+      path = current.file.getPath();
+    }
+    result.success(path);
+  }
+
+  /**
+   * Stops recording. Once the records already taken are written, {@code result} gets the path,
+   * the record count and the size of the trace, and the error that ended it early, if any.
+   */
+  public static void stop(MethodChannel.Result result) {
+    Session stopped;
+    synchronized (lock) {
+      stopped = session;
+      session = null;
+    }
+    if (stopped == null) {
+      result.success(null);
+      return;
+    }
+    BackgroundThread.executor.execute(() -> {
+      Map<String, Object> report = stopped.close();
+      mainHandler.post(() -> result.success(report));
+    });
+  }
+
+  static void recordCall(MethodCall call, MethodDispatcher.Threading callingThread) {
+    Session current = session;
+    if (current != null) {
+      current.enqueue(callingThread == MethodDispatcher.Threading.MAIN_THREAD ? MAIN_CALL : BACKGROUND_CALL,
+          call.method, call.arguments);
+    }
+  }
+
+  static void recordSuccess(String method, Object result) {
+    Session current = session;
+    if (current != null) {
+      current.enqueue(SUCCESS, method, result);
+    }
+  }
+
+  static void recordError(String method, String errorCode) {
+    Session current = session;
+    if (current != null) {
+      current.enqueue(ERROR, method, Collections.singletonMap("errorCode", errorCode));
+    }
+  }
+
+  static void recordEvent(String method, Object arguments) {
+    Session current = session;
+    if (current != null) {
+      current.enqueue(EVENT, method, arguments);
+    }
+  }
+
+  /** A decoded trace record. */
+  public static final class Entry {
+    public final byte kind;
+    /** Microseconds since the start of the recording. */
+    public final long timeMicros;
+    public final String method;
+    public final Object arguments;
+
+    Entry(byte kind, long timeMicros, String method, Object arguments) {
+      this.kind = kind;
+      this.timeMicros = timeMicros;
+      this.method = method;
+      this.arguments = arguments;
+    }
+
+    public boolean isCall() {
+      return kind == MAIN_CALL || kind == BACKGROUND_CALL;
+    }
+  }
+
+  /** Reads a whole trace. A record cut short by the end of the stream is dropped. */
+  public static List<Entry> read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    byte[] magic = new byte[MAGIC.length];
+    data.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not a channel trace.");
+    }
+    int version = data.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported channel trace version " + version + ".");
+    }
+    List<Entry> entries = new ArrayList<>();
+    List<String> methods = new ArrayList<>();
+    long timeMicros = 0;
+    while (true) {
+      int kind = data.read();
+      if (kind < 0) {
+        return entries;
+      }
+      try {
+        timeMicros += readVarint(data);
+        int methodIndex = (int) readVarint(data);
+        if (methodIndex == methods.size()) {
+          byte[] name = new byte[(int) readVarint(data)];
+          data.readFully(name);
+          methods.add(new String(name, StandardCharsets.UTF_8));
+        }
+        byte[] payload = new byte[(int) readVarint(data)];
+        data.readFully(payload);
+        Object arguments = StandardMessageCodec.INSTANCE.decodeMessage(ByteBuffer.wrap(payload));
+        entries.add(new Entry((byte) kind, timeMicros, methods.get(methodIndex), arguments));
+      } catch (EOFException e) {
+        return entries;
+      }
+    }
+  }
+
+  private static final class Session {
+    final File file;
+    final long maxBytes;
+    // Written only on the background thread.
+    private final Map<String, Integer> methodIndexes = new HashMap<>();
+    private OutputStream out;
+    private long bytes;
+    private long records;
+    private long lastTimeNanos;
+    private IOException error;
+
+    Session(File file, long maxBytes) throws IOException {
+      this.file = file;
+      this.maxBytes = maxBytes;
+      this.out = new BufferedOutputStream(new FileOutputStream(file));
+      out.write(MAGIC);
+      out.write(VERSION);
+      bytes = MAGIC.length + 1;
+      lastTimeNanos = System.nanoTime();
+    }
+
+    void enqueue(byte kind, String method, Object arguments) {
+      long timeNanos = System.nanoTime();
+      BackgroundThread.executor.execute(() -> write(kind, method, arguments, timeNanos));
+    }
+
+    private void write(byte kind, String method, Object arguments, long timeNanos) {
+      if (out == null) {
+        return;
+      }
+      ByteBuffer encoded = StandardMessageCodec.INSTANCE.encodeMessage(redact(null, arguments));
+      encoded.flip();
+      Integer methodIndex = methodIndexes.get(method);
+      byte[] name = methodIndex == null ? method.getBytes(StandardCharsets.UTF_8) : null;
+      if (bytes + encoded.remaining() + (name != null ? name.length : 0) + 32 > maxBytes) {
+        error = new IOException("Trace reached " + maxBytes + " bytes.");
+        closeQuietly();
+        return;
+      }
+      // Threads take the time before queueing, so a record can be a few microseconds older than
+      // the one before it.
+      long deltaMicros = Math.max(0, (timeNanos - lastTimeNanos) / 1_000);
+      lastTimeNanos = Math.max(lastTimeNanos, timeNanos);
+      try {
+        out.write(kind);
+        bytes += 1 + writeVarint(out, deltaMicros);
+        if (methodIndex == null) {
+          methodIndex = methodIndexes.size();
+          methodIndexes.put(method, methodIndex);
+          bytes += writeVarint(out, methodIndex) + writeVarint(out, name.length) + name.length;
+          out.write(name);
+        } else {
+          bytes += writeVarint(out, methodIndex);
+        }
+        bytes += writeVarint(out, encoded.remaining()) + encoded.remaining();
+        byte[] payload = new byte[encoded.remaining()];
+        encoded.get(payload);
+        out.write(payload);
+        records++;
+      } catch (IOException e) {
+        error = e;
+        closeQuietly();
+      }
+    }
+
+    Map<String, Object> close() {
+      closeQuietly();
+      Map<String, Object> mapToReturn = new LinkedHashMap<>();
+      mapToReturn.put("path", file.getPath());
+      mapToReturn.put("records", records);
+      mapToReturn.put("bytes", bytes);
+      if (error != null) {
+        mapToReturn.put("error", error.getMessage());
+      }
+      return mapToReturn;
+    }
+
+    private void closeQuietly() {
+      if (out == null) {
+        return;
+      }
+      try {
+        out.close();
+      } catch (IOException e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+      out = null;
+    }
+  }
+
+  /** A copy of {@code value} without buyer or card content; {@code key} is its key in the parent map. */
+  static Object redact(String key, Object value) {
+    if (value instanceof String) {
+      return KEPT_KEYS.contains(key) ? value : mask((String) value);
+    }
+    if (value instanceof Number) {
+      return ZEROED_KEYS.contains(key) ? (Object) 0 : value;
+    }
+    if (value instanceof byte[]) {
+      return new byte[((byte[]) value).length];
+    }
+    if (value instanceof List) {
+      List<Object> list = new ArrayList<>(((List<?>) value).size());
+      for (Object item : (List<?>) value) {
+        list.add(redact(key, item));
+      }
+      return list;
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> map = new LinkedHashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (entry.getValue() instanceof BuyerAction.Charge) {
+          // Written as the separate buyerAction and money arguments the map form takes.
+          Money money = ((BuyerAction.Charge) entry.getValue()).getMoney();
+          map.put(entry.getKey(), "Charge");
+          map.put("money", toMapObject(money));
+        } else {
+          map.put(entry.getKey(), redact(String.valueOf(entry.getKey()), entry.getValue()));
+        }
+      }
+      return map;
+    }
+    if (value instanceof BuyerAction.Store) {
+      return "Store";
+    }
+    if (value instanceof Money) {
+      return toMapObject((Money) value);
+    }
+    if (value instanceof Contact) {
+      return redact(key, toMapObject((Contact) value));
+    }
+    if (value == null || value instanceof Boolean || value instanceof double[] || value instanceof int[]
+        || value instanceof long[]) {
+      return value;
+    }
+    // Arguments that failed to decode; replaying them fails the call the same way.
+    return null;
+  }
+
+  private static String mask(String value) {
+    char[] masked = new char[value.length()];
+    Arrays.fill(masked, '*');
+    return new String(masked);
+  }
+
+  private static Map<String, Object> toMapObject(Money money) {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    mapToReturn.put("amount", money.getAmount());
+    mapToReturn.put("currencyCode", money.getCurrency().name());
+    return mapToReturn;
+  }
+
+  private static Map<String, Object> toMapObject(Contact contact) {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    mapToReturn.put("givenName", contact.getGivenName());
+    mapToReturn.put("familyName", contact.getFamilyName());
+    mapToReturn.put("addressLines", contact.getAddressLines());
+    mapToReturn.put("city", contact.getCity());
+    mapToReturn.put("countryCode", contact.getCountryCode() != null ? contact.getCountryCode().name() : null);
+    mapToReturn.put("email", contact.getEmail());
+    mapToReturn.put("phone", contact.getPhone());
+    mapToReturn.put("postalCode", contact.getPostalCode());
+    mapToReturn.put("region", contact.getRegion());
+    return mapToReturn;
+  }
+
+  private static int writeVarint(OutputStream out, long value) throws IOException {
+    int written = 1;
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+      written++;
+    }
+    out.write((int) value);
+    return written;
+  }
+
+  private static long readVarint(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint.");
+  }
+}
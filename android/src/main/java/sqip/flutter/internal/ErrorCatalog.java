@@ -0,0 +1,158 @@
+package sqip.flutter.internal;
+
+import android.content.Context;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.flutter.plugin.common.MethodChannel;
+import sqip.flutter.R;
+
+/**
+ * Errors the plugin reports itself. Errors with a fixed debug message are {@link Entry entries}
+ * whose payloads are built once and shared, so reporting one allocates nothing. The localized
+ * developer error message is resolved once per locale and debug code. Every reported error,
+ * including those passed through from the SDK, is counted by debug code.
+ */
+public final class ErrorCatalog {
+
+  static final String FL_GOOGLE_PAY_NOT_INITIALIZED = "fl_google_pay_not_initialized";
+  static final String FL_GOOGLE_PAY_NOT_READY = "fl_google_pay_not_ready";
+  static final String FL_GOOGLE_PAY_RESULT_ERROR = "fl_google_pay_result_error";
+  static final String FL_GOOGLE_PAY_UNKNOWN_ERROR = "fl_google_pay_unknown_error";
+  static final String FL_GOOGLE_PAY_NONCE_EXCHANGE_FAILED = "fl_google_pay_nonce_exchange_failed";
+  static final String FL_GOOGLE_PAY_NONCE_EXCHANGE_TIMEOUT = "fl_google_pay_nonce_exchange_timeout";
+  static final String FL_GOOGLE_PAY_DUPLICATE_TOKEN = "fl_google_pay_duplicate_token";
+  static final String FL_CARD_ENTRY_STALE_COMPLETION = "fl_card_entry_stale_completion";
+  static final String FL_CARD_ENTRY_NONCE_TIMEOUT = "fl_card_entry_nonce_timeout";
+  static final String FL_FLOW_IN_PROGRESS = "fl_flow_in_progress";
+
+  static final String FL_MESSAGE_GOOGLE_PAY_NONCE_EXCHANGE_FAILED = "Failed to exchange the Google Pay token for a nonce.";
+
+  private static final ConcurrentMap<String, LongAdder> occurrences = new ConcurrentHashMap<>();
+
+  static final Entry GOOGLE_PAY_NOT_INITIALIZED = new Entry(ErrorHandlerUtils.USAGE_ERROR,
+      FL_GOOGLE_PAY_NOT_INITIALIZED, "Please initialize Google Pay before you can call other methods.");
+  static final Entry GOOGLE_PAY_NOT_READY = new Entry("FAILED",
+      FL_GOOGLE_PAY_NOT_READY, "Google Pay is not available on this device.");
+  static final Entry GOOGLE_PAY_RESULT_ERROR = new Entry(ErrorHandlerUtils.USAGE_ERROR,
+      FL_GOOGLE_PAY_RESULT_ERROR, "Failed to launch Google Pay, please make sure you configured it correctly.");
+  static final Entry GOOGLE_PAY_UNKNOWN_ERROR = new Entry(ErrorHandlerUtils.USAGE_ERROR,
+      FL_GOOGLE_PAY_UNKNOWN_ERROR, "Unknown Google Pay activity result status.");
+  static final Entry GOOGLE_PAY_NONCE_EXCHANGE_TIMEOUT = new Entry("NO_NETWORK",
+      FL_GOOGLE_PAY_NONCE_EXCHANGE_TIMEOUT, "Timed out exchanging the Google Pay token for a nonce.");
+  static final Entry GOOGLE_PAY_DUPLICATE_TOKEN = new Entry("FAILED",
+      FL_GOOGLE_PAY_DUPLICATE_TOKEN, "This Google Pay token is already being exchanged for a nonce.");
+  static final Entry CARD_ENTRY_STALE_COMPLETION = new Entry(ErrorHandlerUtils.USAGE_ERROR,
+      FL_CARD_ENTRY_STALE_COMPLETION, "The card entry this call refers to has already completed or timed out.");
+  static final Entry FLOW_IN_PROGRESS = new Entry(ErrorHandlerUtils.USAGE_ERROR,
+      FL_FLOW_IN_PROGRESS, "Another Flutter engine has a flow of this kind in progress.");
+
+  private static volatile Context context;
+  private static volatile LocalizedMessages localizedMessages;
+
+  private ErrorCatalog() {}
+
+  /** Resolves developer error messages from {@code context}'s resources from now on. */
+  public static void setContext(Context context) {
+    ErrorCatalog.context = context.getApplicationContext();
+    localizedMessages = null;
+  }
+
+  /** Reports {@code entry} as the error of a channel call. */
+  static void reject(MethodChannel.Result result, Entry entry) {
+    entry.occurrences.increment();
+    FlightRecorder.record("rejected", entry.debugCode, null);
+    result.error(entry.code, pluginErrorMessage(entry.debugCode), entry.debugErrorObject);
+  }
+
+  /** Reports a USAGE_ERROR whose debug message depends on the call. */
+  static void reject(MethodChannel.Result result, String debugCode, String debugMessage) {
+    occurrences.computeIfAbsent(debugCode, key -> new LongAdder()).increment();
+    FlightRecorder.record("rejected", debugCode, null);
+    result.error(ErrorHandlerUtils.USAGE_ERROR, pluginErrorMessage(debugCode),
+        ErrorHandlerUtils.getDebugErrorObject(debugCode, debugMessage));
+  }
+
+  /** Counts a flow failure reported without going through the catalog, e.g. one from the SDK. */
+  static void count(String debugCode) {
+    occurrences.computeIfAbsent(String.valueOf(debugCode), key -> new LongAdder()).increment();
+    FlightRecorder.recordFailure(String.valueOf(debugCode));
+  }
+
+  /** The localized "contact the developer" message for {@code debugCode}. */
+  static String pluginErrorMessage(String debugCode) {
+    // Locale.getDefault() follows the app's configuration; it is cheaper than reading the resources.
+    Locale locale = Locale.getDefault();
+    LocalizedMessages messages = localizedMessages;
+    if (messages == null || !messages.locale.equals(locale)) {
+      messages = new LocalizedMessages(locale);
+      localizedMessages = messages;
+    }
+    String message = messages.byDebugCode.get(debugCode);
+    if (message == null) {
+      message = messages.byDebugCode.computeIfAbsent(debugCode, ErrorCatalog::resolveMessage);
+    }
+    return message;
+  }
+
+  private static String resolveMessage(String debugCode) {
+    Context resolver = context;
+    if (resolver == null) {
+      return ErrorHandlerUtils.getPluginErrorMessage(debugCode);
+    }
+    return resolver.getString(R.string.sqip_flutter_developer_error_message, debugCode);
+  }
+
+  /** Occurrences per debug code since the process started, for codes reported at least once. */
+  public static Map<String, Object> toMapObject() {
+    Map<String, Object> mapToReturn = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> entry : occurrences.entrySet()) {
+      long count = entry.getValue().sum();
+      if (count > 0) {
+        mapToReturn.put(entry.getKey(), count);
+      }
+    }
+    return mapToReturn;
+  }
+
+  static final class Entry {
+    final String code;
+    final String debugCode;
+    final String debugMessage;
+    final Map<String, String> debugErrorObject;
+    private final Map<String, String> callbackErrorObject;
+    private final LongAdder occurrences;
+
+    private Entry(String code, String debugCode, String debugMessage) {
+      this.code = code;
+      this.debugCode = debugCode;
+      this.debugMessage = debugMessage;
+      this.debugErrorObject = Collections.unmodifiableMap(ErrorHandlerUtils.getDebugErrorObject(debugCode, debugMessage));
+      this.callbackErrorObject = Collections.unmodifiableMap(
+          ErrorHandlerUtils.getCallbackErrorObject(code, debugMessage, debugCode, debugMessage));
+      this.occurrences = ErrorCatalog.occurrences.computeIfAbsent(debugCode, key -> new LongAdder());
+    }
+
+    /** Counts an occurrence and returns the shared payload of a failure event. */
+    Map<String, String> callbackErrorObject() {
+      occurrences.increment();
+      FlightRecorder.recordFailure(debugCode);
+      return callbackErrorObject;
+    }
+  }
+
+  private static final class LocalizedMessages {
+    final Locale locale;
+    final ConcurrentMap<String, String> byDebugCode = new ConcurrentHashMap<>();
+
+    LocalizedMessages(Locale locale) {
+      this.locale = locale;
+    }
+  }
+}
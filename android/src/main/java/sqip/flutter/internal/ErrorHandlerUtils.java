@@ -17,13 +17,17 @@ package sqip.flutter.internal;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
-import sqip.flutter.R;
 
 final class ErrorHandlerUtils {
   public static final String USAGE_ERROR = "USAGE_ERROR";
 
+  // The default sqip_flutter_developer_error_message, for when no Context is available. Use
+  // ErrorCatalog.pluginErrorMessage for the localized message.
+  private static final String DEVELOPER_ERROR_MESSAGE =
+      "Something went wrong. Please contact the developer of this application and provide them with this error code: %1$s";
+
   public static String getPluginErrorMessage(String pluginErrorCode) {
-    return String.format(String.valueOf(R.string.sqip_flutter_developer_error_message), pluginErrorCode);
+    return String.format(DEVELOPER_ERROR_MESSAGE, pluginErrorCode);
   }
 
   public static Map<String, String> getDebugErrorObject(String debugCode, String debugMessage) {
@@ -0,0 +1,134 @@
+package sqip.flutter.internal;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last {@link #CAPACITY} flow events of the process, kept in memory to diagnose a checkout
+ * that hangs or fails in production: channel calls and their results, activity results, SDK
+ * callbacks and the events sent to Dart. Always on.
+ *
+ * <p>Recording is lock-free: a writer claims a slot with one atomic increment and publishes an
+ * immutable record into it, overwriting the oldest. A reader keeps only records whose sequence
+ * number matches their slot, so a dump never mixes fields of two events. Records hold event and
+ * method names, flow names, correlation IDs, codes and debug codes; never nonces, tokens or card
+ * details.
+ *
+ * <p>When a flow fails, the records are logged and kept as the last error dump, at most once per
+ * {@link #ERROR_DUMP_INTERVAL_MS}.
+ */
+public final class FlightRecorder {
+
+  static final int CAPACITY = 256;
+  static final long NO_CODE = Long.MIN_VALUE;
+
+  private static final String TAG = "SqipFlightRecorder";
+  private static final long ERROR_DUMP_INTERVAL_MS = 10_000;
+
+  private static final AtomicLong nextSequence = new AtomicLong();
+  private static final AtomicReferenceArray<Record> records = new AtomicReferenceArray<>(CAPACITY);
+  private static final AtomicLong lastErrorDumpAtMs = new AtomicLong(-ERROR_DUMP_INTERVAL_MS);
+  private static volatile Map<String, Object> lastErrorDump;
+
+  private FlightRecorder() {}
+
+  public static void record(String event, String subject, String detail) {
+    publish(event, subject, detail, NO_CODE);
+  }
+
+  public static void record(String event, String subject, long code) {
+    publish(event, subject, null, code);
+  }
+
+  private static void publish(String event, String subject, String detail, long code) {
+    long sequence = nextSequence.getAndIncrement();
+    Thread thread = Thread.currentThread();
+    records.set((int) (sequence % CAPACITY),
+        new Record(sequence, System.nanoTime(), thread.getName(), event, subject, detail, code));
+  }
+
+  /** Records a flow failure and dumps the records unless another failure just did. */
+  static void recordFailure(String debugCode) {
+    record("failure", debugCode, null);
+    long now = SystemClock.elapsedRealtime();
+    long last = lastErrorDumpAtMs.get();
+    if (now - last < ERROR_DUMP_INTERVAL_MS || !lastErrorDumpAtMs.compareAndSet(last, now)) {
+      return;
+    }
+    List<Map<String, Object>> snapshot = snapshot();
+    Map<String, Object> dump = new LinkedHashMap<>();
+    dump.put("debugCode", debugCode);
+    dump.put("records", snapshot);
+    lastErrorDump = dump;
+    StringBuilder message = new StringBuilder("Flow failed with ").append(debugCode).append(", last events:");
+    for (Map<String, Object> record : snapshot) {
+      message.append('\n').append(record);
+    }
+    Log.w(TAG, message.toString());
+  }
+
+  /** The records from oldest to newest, as channel payloads. */
+  static List<Map<String, Object>> snapshot() {
+    long end = nextSequence.get();
+    long start = Math.max(0, end - CAPACITY);
+    List<Map<String, Object>> snapshot = new ArrayList<>((int) (end - start));
+    for (long sequence = start; sequence < end; sequence++) {
+      Record record = records.get((int) (sequence % CAPACITY));
+      // Skips slots not yet published, and slots a writer has since reused.
+      if (record != null && record.sequence == sequence) {
+        snapshot.add(record.toMapObject());
+      }
+    }
+    return snapshot;
+  }
+
+  public static Map<String, Object> toMapObject() {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    mapToReturn.put("records", snapshot());
+    mapToReturn.put("lastErrorDump", lastErrorDump);
+    return mapToReturn;
+  }
+
+  private static final class Record {
+    final long sequence;
+    final long timeNanos;
+    final String thread;
+    final String event;
+    final String subject;
+    final String detail;
+    final long code;
+
+    Record(long sequence, long timeNanos, String thread, String event, String subject, String detail, long code) {
+      this.sequence = sequence;
+      this.timeNanos = timeNanos;
+      this.thread = thread;
+      this.event = event;
+      this.subject = subject;
+      this.detail = detail;
+      this.code = code;
+    }
+
+    Map<String, Object> toMapObject() {
+      Map<String, Object> mapToReturn = new LinkedHashMap<>();
+      mapToReturn.put("sequence", sequence);
+      mapToReturn.put("timeMicros", timeNanos / 1_000);
+      mapToReturn.put("thread", thread);
+      mapToReturn.put("event", event);
+      mapToReturn.put("subject", subject);
+      if (detail != null) {
+        mapToReturn.put("detail", detail);
+      }
+      if (code != NO_CODE) {
+        mapToReturn.put("code", code);
+      }
+      return mapToReturn;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package sqip.flutter.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Delivers flow events to Dart over {@code square_in_app_payments/events}. Every event gets a
+ * sequence number and is sent as {@code [sequence, method, arguments]}; events emitted during the
+ * same frame go out together as one list. Until a Dart listener is attached, events are kept and
+ * sent in order once it attaches. Beyond {@link #MAX_BUFFERED_EVENTS} the oldest non-terminal
+ * event is dropped, which Dart sees as a gap in the sequence numbers. Terminal events, the ones
+ * that end a flow or that a flow waits on, are never dropped, so a gap cannot leave a flow waiting
+ * for an event that was discarded; there are at most two per flow started, which bounds what the
+ * buffer can grow to.
+ */
+final class FlowEventStream implements EventChannel.StreamHandler {
+
+  static final int MAX_BUFFERED_EVENTS = 128;
+
+  private static final String EVENTS_CHANNEL_NAME = "square_in_app_payments/events";
+  // Frame callbacks stop while the screen is off; flush anyway after a few frames.
+  private static final long FALLBACK_FLUSH_DELAY_MS = 50;
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> flush();
+  private final Runnable flushRunnable = this::flush;
+  private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+  private long nextSequence;
+  private boolean flushScheduled;
+  private EventChannel.EventSink sink;
+
+  FlowEventStream(BinaryMessenger messenger) {
+    new EventChannel(messenger, EVENTS_CHANNEL_NAME).setStreamHandler(this);
+  }
+
+  /**
+   * Queues an event for the next frame. May be called from any thread.
+   *
+   * @param terminal whether the event ends its flow, e.g. a cancel, completion or error, or a flow
+   *     waits for Dart to answer it.
+   */
+  void emit(String method, Object arguments, boolean terminal) {
+    // The name is only built while tracing.
+    boolean traced = PluginTrace.isEnabled() && PluginTrace.begin("sqip:emit " + method);
+    try {
+      enqueue(method, arguments, terminal);
+    } finally {
+      PluginTrace.end(traced);
+    }
+  }
+
+  private void enqueue(String method, Object arguments, boolean terminal) {
+    ChannelRecorder.recordEvent(method, arguments);
+    synchronized (pending) {
+      if (pending.size() >= MAX_BUFFERED_EVENTS) {
+        dropOldestNonTerminal();
+      }
+      FlightRecorder.record("emit", method, nextSequence);
+      pending.addLast(new Pending(Arrays.asList(nextSequence++, method, arguments), terminal));
+      if (flushScheduled) {
+        return;
+      }
+      flushScheduled = true;
+    }
+    handler.post(() -> {
+      Choreographer.getInstance().postFrameCallback(frameCallback);
+      handler.postDelayed(flushRunnable, FALLBACK_FLUSH_DELAY_MS);
+    });
+  }
+
+  @Override
+  public void onListen(Object arguments, EventChannel.EventSink events) {
+    sink = events;
+    flush();
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    sink = null;
+  }
+
+  private void flush() {
+    Choreographer.getInstance().removeFrameCallback(frameCallback);
+    handler.removeCallbacks(flushRunnable);
+    List<List<Object>> batch;
+    synchronized (pending) {
+      flushScheduled = false;
+      if (sink == null || pending.isEmpty()) {
+        return;
+      }
+      batch = new ArrayList<>(pending.size());
+      for (Pending event : pending) {
+        batch.add(event.event);
+      }
+      pending.clear();
+    }
+    FlightRecorder.record("flush", "events", batch.size());
+    boolean traced = PluginTrace.begin("sqip:flushFlowEvents");
+    try {
+      sink.success(batch);
+    } finally {
+      PluginTrace.end(traced);
+    }
+  }
+
+  private void dropOldestNonTerminal() {
+    Iterator<Pending> iterator = pending.iterator();
+    while (iterator.hasNext()) {
+      Pending event = iterator.next();
+      if (!event.terminal) {
+        iterator.remove();
+        FlightRecorder.record("drop", (String) event.event.get(1), (Long) event.event.get(0));
+        return;
+      }
+    }
+  }
+
+  private static final class Pending {
+    final List<Object> event;
+    final boolean terminal;
+
+    Pending(List<Object> event, boolean terminal) {
+      this.event = event;
+      this.terminal = terminal;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package sqip.flutter.internal;
+
+import android.content.Intent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import sqip.BuyerVerification;
+import sqip.CardDetails;
+import sqip.CardEntry;
+import sqip.CardEntryActivityCommand;
+
+/**
+ * Routes SDK callbacks and activity results to the engine that started the flow, for apps that run
+ * several Flutter engines (e.g. from a FlutterEngineGroup). The SDK has one process-wide card nonce
+ * handler and shows one card entry, buyer verification or Google Pay activity at a time, so the
+ * router owns that handler and records, per flow, the module that started it. Activity results
+ * are handed to that module once, even when several engines share the host activity and all of
+ * them see the result.
+ *
+ * <p>Owners are held in an {@link AtomicReferenceArray}; starting, routing and releasing a flow
+ * are compare-and-set operations.
+ */
+public final class FlowRouter {
+
+  public enum Flow {
+    CARD_ENTRY,
+    BUYER_VERIFICATION,
+    GOOGLE_PAY
+  }
+
+  /** A module that starts flows and receives their results. */
+  interface Owner {
+    /** Handles the activity result of a flow this owner started. Called on the main thread. */
+    void onFlowResult(Flow flow, int resultCode, Intent data);
+
+    /** Called on an SDK thread while this owner's card entry is showing. */
+    default CardEntryActivityCommand handleEnteredCardInBackground(CardDetails cardDetails) {
+      return new CardEntryActivityCommand.Finish();
+    }
+  }
+
+  private static final Flow[] FLOWS = Flow.values();
+
+  public static final FlowRouter INSTANCE = new FlowRouter();
+
+  private final AtomicReferenceArray<Owner> owners = new AtomicReferenceArray<>(FLOWS.length);
+  private final AtomicBoolean installed = new AtomicBoolean();
+
+  private FlowRouter() {}
+
+  /** Installs the router's card nonce handler. Only the first call has an effect. */
+  void install(PaymentsSdk sdk) {
+    if (installed.compareAndSet(false, true)) {
+      sdk.setCardNonceBackgroundHandler(cardDetails -> {
+        Owner owner = owners.get(Flow.CARD_ENTRY.ordinal());
+        return owner != null ? owner.handleEnteredCardInBackground(cardDetails) : new CardEntryActivityCommand.Finish();
+      });
+    }
+  }
+
+  /**
+   * Records {@code owner} as the owner of {@code flow}.
+   *
+   * @return false if a flow of that kind started by another owner has not finished.
+   */
+  boolean start(Flow flow, Owner owner) {
+    int index = flow.ordinal();
+    while (true) {
+      Owner current = owners.get(index);
+      if (current != null && current != owner) {
+        return false;
+      }
+      if (current == owner || owners.compareAndSet(index, null, owner)) {
+        return true;
+      }
+    }
+  }
+
+  /** Gives up {@code flow} if {@code owner} still owns it, e.g. when the flow could not start. */
+  void release(Flow flow, Owner owner) {
+    owners.compareAndSet(flow.ordinal(), owner, null);
+  }
+
+  /** Gives up every flow {@code owner} owns, when its engine goes away. */
+  void releaseAll(Owner owner) {
+    for (Flow flow : FLOWS) {
+      release(flow, owner);
+    }
+  }
+
+  /**
+   * Hands an activity result to the owner of its flow, which stops owning it. Results for flows
+   * nobody owns, including a second delivery of the same result, are ignored.
+   *
+   * @return true if the result belonged to one of the plugin's flows.
+   */
+  public boolean onActivityResult(int requestCode, int resultCode, Intent data) {
+    Flow flow = flowFor(requestCode);
+    if (flow == null) {
+      return false;
+    }
+    Owner owner = owners.getAndSet(flow.ordinal(), null);
+    if (owner != null) {
+      FlightRecorder.record("activityResult", flow.name(), resultCode);
+      owner.onFlowResult(flow, resultCode, data);
+    } else {
+      FlightRecorder.record("dropped", flow.name(), "noOwner");
+    }
+    return true;
+  }
+
+  private static Flow flowFor(int requestCode) {
+    if (requestCode == CardEntry.DEFAULT_CARD_ENTRY_REQUEST_CODE) {
+      return Flow.CARD_ENTRY;
+    }
+    if (requestCode == BuyerVerification.DEFAULT_BUYER_VERIFICATION_REQUEST_CODE) {
+      return Flow.BUYER_VERIFICATION;
+    }
+    if (requestCode == GooglePayModule.LOAD_PAYMENT_DATA_REQUEST_CODE) {
+      return Flow.GOOGLE_PAY;
+    }
+    return null;
+  }
+}
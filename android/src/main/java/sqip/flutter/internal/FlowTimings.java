@@ -0,0 +1,116 @@
+package sqip.flutter.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end timing of the card entry, buyer verification and Google Pay flows. Each flow has at
+ * most one run in progress; {@link #stage} records the time since the previous stage and
+ * {@link #finish} records the time since {@link #start}, keyed by outcome ("success", "cancel" or
+ * an error code). Timestamps come from {@link System#nanoTime()} and all updates are lock-free.
+ */
+public final class FlowTimings {
+
+  public enum Flow {
+    CARD_ENTRY("cardEntry"),
+    BUYER_VERIFICATION("buyerVerification"),
+    GOOGLE_PAY("googlePay");
+
+    final String key;
+
+    Flow(String key) {
+      this.key = key;
+    }
+  }
+
+  public static final String OUTCOME_SUCCESS = "success";
+  public static final String OUTCOME_CANCEL = "cancel";
+
+  private static final long NOT_STARTED = 0;
+
+  private final FlowState[] states;
+
+  public FlowTimings() {
+    Flow[] flows = Flow.values();
+    states = new FlowState[flows.length];
+    for (Flow flow : flows) {
+      states[flow.ordinal()] = new FlowState();
+    }
+  }
+
+  public void start(Flow flow) {
+    FlowState state = states[flow.ordinal()];
+    long now = now();
+    state.startedAt.set(now);
+    state.lastStageAt.set(now);
+  }
+
+  /** Records the time since the previous stage of a running flow under {@code stage}. */
+  public void stage(Flow flow, String stage) {
+    FlowState state = states[flow.ordinal()];
+    if (state.startedAt.get() == NOT_STARTED) {
+      return;
+    }
+    long now = now();
+    long previous = state.lastStageAt.getAndSet(now);
+    histogram(state.stages, stage).record(now - previous);
+  }
+
+  /** Records the whole run under {@code outcome}. Only the first finish of a run is counted. */
+  public void finish(Flow flow, String outcome) {
+    FlowState state = states[flow.ordinal()];
+    long startedAt = state.startedAt.getAndSet(NOT_STARTED);
+    if (startedAt == NOT_STARTED) {
+      return;
+    }
+    histogram(state.outcomes, outcome).record(now() - startedAt);
+  }
+
+  public Map<String, Object> toMapObject() {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    for (Flow flow : Flow.values()) {
+      FlowState state = states[flow.ordinal()];
+      Map<String, Object> flowMap = new LinkedHashMap<>();
+      flowMap.put("stages", toMapObject(state.stages));
+      flowMap.put("outcomes", toMapObject(state.outcomes));
+      mapToReturn.put(flow.key, flowMap);
+    }
+    return mapToReturn;
+  }
+
+  private static Map<String, Object> toMapObject(Map<String, LatencyHistogram> histograms) {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      mapToReturn.put(entry.getKey(), entry.getValue().toMapObject());
+    }
+    return mapToReturn;
+  }
+
+  private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String key) {
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      histogram = histograms.putIfAbsent(key, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  private static long now() {
+    // nanoTime may legitimately be zero or negative; keep NOT_STARTED unambiguous.
+    long now = System.nanoTime();
+    return now == NOT_STARTED ? 1 : now;
+  }
+
+  private static final class FlowState {
+    final AtomicLong startedAt = new AtomicLong(NOT_STARTED);
+    final AtomicLong lastStageAt = new AtomicLong();
+    final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+    final ConcurrentMap<String, LatencyHistogram> outcomes = new ConcurrentHashMap<>();
+  }
+}
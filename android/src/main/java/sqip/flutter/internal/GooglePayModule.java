@@ -1,131 +1,373 @@
 package sqip.flutter.internal;
 
 import android.app.Activity;
-import android.content.Context;
 import android.content.Intent;
+import android.os.Looper;
 
-import com.google.android.gms.tasks.Task;
 import com.google.android.gms.wallet.AutoResolveHelper;
-import com.google.android.gms.wallet.IsReadyToPayRequest;
-import com.google.android.gms.wallet.PaymentData;
-import com.google.android.gms.wallet.PaymentDataRequest;
-import com.google.android.gms.wallet.PaymentsClient;
-import com.google.android.gms.wallet.TransactionInfo;
-import com.google.android.gms.wallet.Wallet;
-
-import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+
 import io.flutter.plugin.common.MethodChannel;
-import sqip.Callback;
-import sqip.GooglePay;
+import sqip.CardDetails;
 import sqip.GooglePayNonceResult;
-import sqip.flutter.internal.converter.CardConverter;
-import sqip.flutter.internal.converter.CardDetailsConverter;
-
-public final class GooglePayModule {
-
-  private static final String FL_GOOGLE_PAY_NOT_INITIALIZED = "fl_google_pay_not_initialized";
-  private static final String FL_GOOGLE_PAY_RESULT_ERROR = "fl_google_pay_result_error";
-  private static final String FL_GOOGLE_PAY_UNKNOWN_ERROR = "fl_google_pay_unknown_error";
-  private static final String FL_MESSAGE_GOOGLE_PAY_NOT_INITIALIZED = "Please initialize Google Pay before you can call other methods.";
-  private static final String FL_MESSAGE_GOOGLE_PAY_RESULT_ERROR = "Failed to launch Google Pay, please make sure you configured it correctly.";
-  private static final String FL_MESSAGE_GOOGLE_PAY_UNKNOWN_ERROR = "Unknown Google Pay activity result status.";
-
-  private static final int LOAD_PAYMENT_DATA_REQUEST_CODE = 4111;
-
-  private final CardDetailsConverter cardDetailsConverter;
-  private PaymentsClient googlePayClients;
-  private String squareLocationId;
-
-  private Activity currentActivity;
-
-  public GooglePayModule(Context context, MethodChannel channel) {
-    this.cardDetailsConverter = new CardDetailsConverter(new CardConverter());
-  }
-
-  public void attachActivityResultListener(final ActivityPluginBinding activityPluginBinding, final MethodChannel channel) {
-    this.currentActivity = activityPluginBinding.getActivity();
-
-    activityPluginBinding.addActivityResultListener((requestCode, resultCode, data) -> {
-      if (requestCode == LOAD_PAYMENT_DATA_REQUEST_CODE) {
-        switch (resultCode) {
-          case Activity.RESULT_OK:
-            PaymentData paymentData = PaymentData.getFromIntent(data);
-            ErrorHandlerUtils.checkNotNull(paymentData, "paymentData should never be null.");
-            String googlePayToken = paymentData.getPaymentMethodToken().getToken();
-            GooglePay.requestGooglePayNonce(googlePayToken).enqueue(new Callback<GooglePayNonceResult>() {
-              @Override
-              public void onResult(GooglePayNonceResult result) {
-                if (result.isSuccess()) {
-                  channel.invokeMethod("onGooglePayNonceRequestSuccess", cardDetailsConverter.toMapObject(result.getSuccessValue()));
-                } else if (result.isError()) {
-                  GooglePayNonceResult.Error error = result.getErrorValue();
-                  channel.invokeMethod("onGooglePayNonceRequestFailure", ErrorHandlerUtils.getCallbackErrorObject(
-                      error.getCode().name(), error.getMessage(), error.getDebugCode(), error.getDebugMessage()));
-                }
-              }
-            });
-            break;
-          case Activity.RESULT_CANCELED:
-            channel.invokeMethod("onGooglePayCanceled", null);
-            break;
-          case AutoResolveHelper.RESULT_ERROR:
-            channel.invokeMethod("onGooglePayNonceRequestFailure", ErrorHandlerUtils.getCallbackErrorObject(
-                ErrorHandlerUtils.USAGE_ERROR, FL_MESSAGE_GOOGLE_PAY_RESULT_ERROR,
-                FL_GOOGLE_PAY_RESULT_ERROR, FL_MESSAGE_GOOGLE_PAY_RESULT_ERROR));
-            break;
-          default:
-            channel.invokeMethod("onGooglePayNonceRequestFailure", ErrorHandlerUtils.getCallbackErrorObject(
-                ErrorHandlerUtils.USAGE_ERROR, FL_MESSAGE_GOOGLE_PAY_UNKNOWN_ERROR,
-                FL_GOOGLE_PAY_UNKNOWN_ERROR, FL_MESSAGE_GOOGLE_PAY_UNKNOWN_ERROR));
-            break;
+
+public final class GooglePayModule implements FlowRouter.Owner {
+
+  public static final long DEFAULT_READINESS_CACHE_TTL_MS = GooglePayReadinessCache.DEFAULT_TTL_MS;
+
+  private static final String FAILED = "FAILED";
+
+  static final int LOAD_PAYMENT_DATA_REQUEST_CODE = 4111;
+  private static final String TRACE_LOAD_PAYMENT_DATA = "sqip:loadPaymentData";
+
+  private static final int DEFAULT_NONCE_EXCHANGE_MAX_ATTEMPTS = 3;
+  private static final long DEFAULT_NONCE_EXCHANGE_BACKOFF_MS = 500;
+  private static final long DEFAULT_NONCE_EXCHANGE_DEADLINE_MS = 30_000;
+
+  // Shared by every module instance so a token redelivered to a new activity is still deduplicated.
+  private static final NonceExchangePipeline<GooglePayNonceResult> nonceExchange = new NonceExchangePipeline<>(
+      result -> !result.isError(),
+      result -> result.isError() && result.getErrorValue().getCode() == GooglePayNonceResult.Error.Code.NO_NETWORK,
+      DEFAULT_NONCE_EXCHANGE_MAX_ATTEMPTS,
+      DEFAULT_NONCE_EXCHANGE_BACKOFF_MS,
+      DEFAULT_NONCE_EXCHANGE_DEADLINE_MS);
+
+  private final PaymentsSdk sdk;
+  private final CardResultChannel resultChannel;
+  private final FlowTimings flowTimings;
+  // Read by prewarmClient on the Prewarmer's thread; written on the main thread.
+  private volatile PaymentsSdk.GooglePayClient googlePayClients;
+  private volatile String squareLocationId;
+  private int environment;
+  private final GooglePayReadinessCache readinessCache = new GooglePayReadinessCache();
+  private final ActivityResultProcessor resultProcessor = new ActivityResultProcessor();
+  // Async slice from showing the payment sheet until its result arrives.
+  private volatile int paymentSheetTraceCookie = PluginTrace.NO_COOKIE;
+  // Where the result of the payment sheet showing now goes.
+  private volatile Outcome outcome;
+
+  // The payments client is bound to an activity, so it is rebuilt for every attached activity and
+  // dropped on detach; squareLocationId records that Google Pay was initialized.
+  private volatile WeakReference<Activity> currentActivity = new WeakReference<>(null);
+  // Built ahead of initializeGooglePay by prewarmClient; adopted if the activity and environment match.
+  private volatile PrewarmedClient prewarmedClient;
+
+  /** requestGooglePayNonce reports through events. */
+  private final Outcome eventOutcome = new Outcome() {
+    @Override
+    public void success(CardDetails cardDetails) {
+      resultChannel.sendGooglePayNonceRequestSuccess(cardDetails);
+    }
+
+    @Override
+    public void canceled() {
+      resultChannel.send("onGooglePayCanceled", null);
+    }
+
+    @Override
+    public void failure(Map<String, String> callbackErrorObject) {
+      resultChannel.send("onGooglePayNonceRequestFailure", callbackErrorObject);
+    }
+  };
+
+  public GooglePayModule(PaymentsSdk sdk, CardResultChannel resultChannel, FlowTimings flowTimings) {
+    this.sdk = sdk;
+    this.resultChannel = resultChannel;
+    this.flowTimings = flowTimings;
+  }
+
+  public void attachActivity(Activity activity) {
+    this.currentActivity = new WeakReference<>(activity);
+    if (squareLocationId != null) {
+      googlePayClients = clientFor(activity, environment);
+      readinessCache.setClient(googlePayClients);
+    }
+  }
+
+  public void detachActivity() {
+    currentActivity.clear();
+    prewarmedClient = null;
+    googlePayClients = null;
+    readinessCache.setClient(null);
+  }
+
+  /** Releases the payment sheet if this module showed it, so another engine can show one. */
+  public void dispose() {
+    FlowRouter.INSTANCE.releaseAll(this);
+  }
+
+  @Override
+  public void onFlowResult(FlowRouter.Flow flow, int resultCode, Intent data) {
+    resultProcessor.process(() -> handlePaymentDataResult(resultCode, data));
+  }
+
+  private void handlePaymentDataResult(int resultCode, Intent data) {
+    PluginTrace.endAsync(TRACE_LOAD_PAYMENT_DATA, paymentSheetTraceCookie);
+    paymentSheetTraceCookie = PluginTrace.NO_COOKIE;
+    Outcome flowOutcome = outcome;
+    outcome = null;
+    if (flowOutcome == null) {
+      flowOutcome = eventOutcome;
+    }
+    flowTimings.stage(FlowTimings.Flow.GOOGLE_PAY, "paymentSheet");
+    switch (resultCode) {
+      case Activity.RESULT_OK:
+        String googlePayToken = sdk.getGooglePayToken(data);
+        if (!nonceExchange.submit(googlePayToken, sdk::requestGooglePayNonce, nonceExchangeListener(flowOutcome))) {
+          // The exchange already running for this token reports to the flow that submitted it.
+          flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, ErrorCatalog.FL_GOOGLE_PAY_DUPLICATE_TOKEN);
+          flowOutcome.failure(ErrorCatalog.GOOGLE_PAY_DUPLICATE_TOKEN.callbackErrorObject());
         }
+        break;
+      case Activity.RESULT_CANCELED:
+        flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, FlowTimings.OUTCOME_CANCEL);
+        flowOutcome.canceled();
+        break;
+      case AutoResolveHelper.RESULT_ERROR:
+        flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, ErrorCatalog.FL_GOOGLE_PAY_RESULT_ERROR);
+        flowOutcome.failure(ErrorCatalog.GOOGLE_PAY_RESULT_ERROR.callbackErrorObject());
+        break;
+      default:
+        flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, ErrorCatalog.FL_GOOGLE_PAY_UNKNOWN_ERROR);
+        flowOutcome.failure(ErrorCatalog.GOOGLE_PAY_UNKNOWN_ERROR.callbackErrorObject());
+        break;
+    }
+  }
+
+  private NonceExchangePipeline.Listener<GooglePayNonceResult> nonceExchangeListener(Outcome flowOutcome) {
+    return new NonceExchangePipeline.Listener<GooglePayNonceResult>() {
+      @Override
+      public void onResult(GooglePayNonceResult result) {
+        FlightRecorder.record("sdkCallback", FlowRouter.Flow.GOOGLE_PAY.name(),
+            result.isSuccess() ? "success" : result.isError() ? result.getErrorValue().getCode().name() : "other");
+        flowTimings.stage(FlowTimings.Flow.GOOGLE_PAY, "nonceExchange");
+        if (result.isSuccess()) {
+          flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, FlowTimings.OUTCOME_SUCCESS);
+          flowOutcome.success(result.getSuccessValue());
+        } else if (result.isError()) {
+          GooglePayNonceResult.Error error = result.getErrorValue();
+          flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, error.getCode().name());
+          ErrorCatalog.count(error.getDebugCode());
+          flowOutcome.failure(ErrorHandlerUtils.getCallbackErrorObject(
+              error.getCode().name(), error.getMessage(), error.getDebugCode(), error.getDebugMessage()));
+        }
+      }
+
+      @Override
+      public void onFailure(Exception exception) {
+        flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, ErrorCatalog.FL_GOOGLE_PAY_NONCE_EXCHANGE_FAILED);
+        ErrorCatalog.count(ErrorCatalog.FL_GOOGLE_PAY_NONCE_EXCHANGE_FAILED);
+        flowOutcome.failure(ErrorHandlerUtils.getCallbackErrorObject(
+            FAILED, ErrorCatalog.FL_MESSAGE_GOOGLE_PAY_NONCE_EXCHANGE_FAILED,
+            ErrorCatalog.FL_GOOGLE_PAY_NONCE_EXCHANGE_FAILED, String.valueOf(exception.getMessage())));
       }
+
+      @Override
+      public void onTimeout() {
+        flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, ErrorCatalog.FL_GOOGLE_PAY_NONCE_EXCHANGE_TIMEOUT);
+        flowOutcome.failure(ErrorCatalog.GOOGLE_PAY_NONCE_EXCHANGE_TIMEOUT.callbackErrorObject());
+      }
+    };
+  }
+
+  public void initializeGooglePay(String squareLocationId, int environment, long readinessCacheTtlMs) {
+    if (this.squareLocationId == null || environment != this.environment || !squareLocationId.equals(this.squareLocationId)) {
+      this.squareLocationId = squareLocationId;
+      this.environment = environment;
+      Activity activity = currentActivity.get();
+      googlePayClients = activity != null ? clientFor(activity, environment) : null;
+      readinessCache.reset(googlePayClients, readinessCacheTtlMs);
+    }
+    readinessCache.warmUp();
+  }
+
+  /**
+   * Builds the payments client for {@code environment} ahead of initializeGooglePay, or starts the
+   * readiness probe if Google Pay is already initialized. Runs on the Prewarmer's thread.
+   *
+   * @return false if there is no activity, or nothing to build because no environment was given.
+   */
+  public boolean prewarmClient(Integer environment) {
+    Activity activity = currentActivity.get();
+    if (activity == null) {
       return false;
-    });
+    }
+    if (squareLocationId != null) {
+      readinessCache.warmUp();
+      return true;
+    }
+    if (environment == null) {
+      return false;
+    }
+    prewarmedClient = new PrewarmedClient(activity, environment, sdk.createGooglePayClient(activity, environment));
+    return true;
   }
 
-  public void initializeGooglePay(String squareLocationId, int environment) {
-    this.squareLocationId = squareLocationId;
+  private PaymentsSdk.GooglePayClient clientFor(Activity activity, int environment) {
+    PrewarmedClient prewarmed = prewarmedClient;
+    prewarmedClient = null;
+    if (prewarmed != null && prewarmed.environment == environment && prewarmed.activity.get() == activity) {
+      return prewarmed.client;
+    }
+    return sdk.createGooglePayClient(activity, environment);
+  }
 
-    googlePayClients = Wallet.getPaymentsClient(
-        currentActivity,
-        new Wallet.WalletOptions.Builder().setEnvironment(environment).build()
-    );
+  public void setNonceExchangeOptions(MethodChannel.Result result, int maxAttempts, long deadlineMs) {
+    nonceExchange.configure(maxAttempts, DEFAULT_NONCE_EXCHANGE_BACKOFF_MS, deadlineMs);
+    result.success(null);
   }
 
   public void canUseGooglePay(final MethodChannel.Result result) {
-    if (googlePayClients == null) {
-      result.error(ErrorHandlerUtils.USAGE_ERROR,
-          ErrorHandlerUtils.getPluginErrorMessage(FL_GOOGLE_PAY_NOT_INITIALIZED),
-          ErrorHandlerUtils.getDebugErrorObject(FL_GOOGLE_PAY_NOT_INITIALIZED, FL_MESSAGE_GOOGLE_PAY_NOT_INITIALIZED));
+    if (squareLocationId == null) {
+      ErrorCatalog.reject(result, ErrorCatalog.GOOGLE_PAY_NOT_INITIALIZED);
       return;
     }
 
-    IsReadyToPayRequest isReadyToPayRequest = GooglePay.createIsReadyToPayRequest();
-    googlePayClients.isReadyToPay(isReadyToPayRequest).addOnCompleteListener((Task<Boolean> task) -> {
-      result.success(task.isSuccessful());
-    });
+    readinessCache.whenReady(result::success);
   }
 
   public void requestGooglePayNonce(MethodChannel.Result result, String price, String currencyCode, int priceStatus) {
     if (googlePayClients == null) {
-      result.error(ErrorHandlerUtils.USAGE_ERROR,
-          ErrorHandlerUtils.getPluginErrorMessage(FL_GOOGLE_PAY_NOT_INITIALIZED),
-          ErrorHandlerUtils.getDebugErrorObject(FL_GOOGLE_PAY_NOT_INITIALIZED, FL_MESSAGE_GOOGLE_PAY_NOT_INITIALIZED));
+      ErrorCatalog.reject(result, ErrorCatalog.GOOGLE_PAY_NOT_INITIALIZED);
+      return;
+    }
+    if (!FlowRouter.INSTANCE.start(FlowRouter.Flow.GOOGLE_PAY, this)) {
+      ErrorCatalog.reject(result, ErrorCatalog.FLOW_IN_PROGRESS);
       return;
     }
 
-    PaymentDataRequest request = createPaymentChargeRequest(squareLocationId, price, currencyCode, priceStatus);
-    AutoResolveHelper.resolveTask(googlePayClients.loadPaymentData(request), currentActivity, LOAD_PAYMENT_DATA_REQUEST_CODE);
+    try {
+      showPaymentSheet(eventOutcome, price, currencyCode, priceStatus);
+    } catch (RuntimeException e) {
+      ErrorCatalog.reject(result, ErrorCatalog.GOOGLE_PAY_RESULT_ERROR);
+      return;
+    }
     result.success(null);
   }
 
-  private PaymentDataRequest createPaymentChargeRequest(String squareLocationId, String price, String currencyCode, int priceStatus) {
-    TransactionInfo transactionInfo = TransactionInfo.newBuilder()
-        .setTotalPriceStatus(priceStatus)
-        .setTotalPrice(price)
-        .setCurrencyCode(currencyCode)
-        .build();
-    return GooglePay.createPaymentDataRequest(squareLocationId, transactionInfo);
+  /**
+   * Initializes Google Pay unless it is initialized for this location and environment, waits for
+   * readiness and shows the payment sheet in one call. {@code result} completes with the card
+   * details, with null when the buyer cancels, or with the error the failure callback of
+   * requestGooglePayNonce would get; no events are sent.
+   */
+  public void googlePayCheckout(MethodChannel.Result result, String squareLocationId, int environment, String price,
+      String currencyCode, int priceStatus) {
+    initializeGooglePay(squareLocationId, environment, readinessCache.ttlMs());
+    if (googlePayClients == null) {
+      ErrorCatalog.reject(result, ErrorCatalog.GOOGLE_PAY_NOT_INITIALIZED);
+      return;
+    }
+    if (!FlowRouter.INSTANCE.start(FlowRouter.Flow.GOOGLE_PAY, this)) {
+      ErrorCatalog.reject(result, ErrorCatalog.FLOW_IN_PROGRESS);
+      return;
+    }
+
+    Outcome checkoutOutcome = new CheckoutOutcome(result);
+    readinessCache.whenReady(ready -> {
+      if (Looper.myLooper() == Looper.getMainLooper()) {
+        showCheckoutPaymentSheet(checkoutOutcome, ready, price, currencyCode, priceStatus);
+      } else {
+        resultProcessor.runOnMainThread(
+            () -> showCheckoutPaymentSheet(checkoutOutcome, ready, price, currencyCode, priceStatus));
+      }
+    });
+  }
+
+  private void showCheckoutPaymentSheet(Outcome checkoutOutcome, boolean ready, String price, String currencyCode,
+      int priceStatus) {
+    FlightRecorder.record("readiness", FlowRouter.Flow.GOOGLE_PAY.name(), ready ? "ready" : "notReady");
+    if (!ready || googlePayClients == null) {
+      FlowRouter.INSTANCE.release(FlowRouter.Flow.GOOGLE_PAY, this);
+      checkoutOutcome.failure(ready
+          ? ErrorCatalog.GOOGLE_PAY_NOT_INITIALIZED.callbackErrorObject()
+          : ErrorCatalog.GOOGLE_PAY_NOT_READY.callbackErrorObject());
+      return;
+    }
+    try {
+      showPaymentSheet(checkoutOutcome, price, currencyCode, priceStatus);
+    } catch (RuntimeException e) {
+      checkoutOutcome.failure(ErrorCatalog.GOOGLE_PAY_RESULT_ERROR.callbackErrorObject());
+    }
+  }
+
+  /**
+   * Shows the payment sheet for the GOOGLE_PAY flow this module has claimed, on the main thread.
+   * If the sheet cannot be shown, releases the claim and ends the timings and trace slice started
+   * for it, then rethrows.
+   */
+  private void showPaymentSheet(Outcome flowOutcome, String price, String currencyCode, int priceStatus) {
+    Activity activity = currentActivity.get();
+    PaymentsSdk.GooglePayClient client = googlePayClients;
+    if (activity == null || client == null) {
+      FlowRouter.INSTANCE.release(FlowRouter.Flow.GOOGLE_PAY, this);
+      throw new IllegalStateException("No activity is attached.");
+    }
+    outcome = flowOutcome;
+    FlightRecorder.record("showPaymentSheet", FlowRouter.Flow.GOOGLE_PAY.name(),
+        flowOutcome == eventOutcome ? "events" : "checkout");
+    flowTimings.start(FlowTimings.Flow.GOOGLE_PAY);
+    paymentSheetTraceCookie = PluginTrace.beginAsync(TRACE_LOAD_PAYMENT_DATA);
+    try {
+      client.loadPaymentData(activity, squareLocationId, price, currencyCode, priceStatus, LOAD_PAYMENT_DATA_REQUEST_CODE);
+    } catch (RuntimeException e) {
+      outcome = null;
+      PluginTrace.endAsync(TRACE_LOAD_PAYMENT_DATA, paymentSheetTraceCookie);
+      paymentSheetTraceCookie = PluginTrace.NO_COOKIE;
+      flowTimings.finish(FlowTimings.Flow.GOOGLE_PAY, ErrorCatalog.FL_GOOGLE_PAY_RESULT_ERROR);
+      FlowRouter.INSTANCE.release(FlowRouter.Flow.GOOGLE_PAY, this);
+      throw e;
+    }
+  }
+
+  /** Where the result of a payment sheet goes. */
+  private interface Outcome {
+    void success(CardDetails cardDetails);
+
+    void canceled();
+
+    void failure(Map<String, String> callbackErrorObject);
+  }
+
+  /** Completes a googlePayCheckout call on the main thread. */
+  private final class CheckoutOutcome implements Outcome {
+    private final MethodChannel.Result result;
+
+    CheckoutOutcome(MethodChannel.Result result) {
+      this.result = result;
+    }
+
+    @Override
+    public void success(CardDetails cardDetails) {
+      Map<String, Object> payload = CardResultChannel.toMapObject(cardDetails);
+      resultProcessor.runOnMainThread(() -> result.success(payload));
+    }
+
+    @Override
+    public void canceled() {
+      resultProcessor.runOnMainThread(() -> result.success(null));
+    }
+
+    @Override
+    public void failure(Map<String, String> callbackErrorObject) {
+      Map<String, String> details = ErrorHandlerUtils.getDebugErrorObject(
+          callbackErrorObject.get("debugCode"), callbackErrorObject.get("debugMessage"));
+      resultProcessor.runOnMainThread(
+          () -> result.error(callbackErrorObject.get("code"), callbackErrorObject.get("message"), details));
+    }
+  }
+
+  private static final class PrewarmedClient {
+    final WeakReference<Activity> activity;
+    final int environment;
+    final PaymentsSdk.GooglePayClient client;
+
+    PrewarmedClient(Activity activity, int environment, PaymentsSdk.GooglePayClient client) {
+      this.activity = new WeakReference<>(activity);
+      this.environment = environment;
+      this.client = client;
+    }
   }
 }
@@ -0,0 +1,109 @@
+package sqip.flutter.internal;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Caches the answer of {@link PaymentsSdk.GooglePayClient#isReadyToPay} for a configurable TTL. Callers that
+ * ask while a probe is running are attached to that probe instead of starting another one. The
+ * cache is reset whenever Google Pay is initialized with a new client; callers still waiting on
+ * the old client's probe are answered by the next probe.
+ */
+final class GooglePayReadinessCache {
+
+  static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+
+  private static final String TRACE_IS_READY_TO_PAY = "sqip:isReadyToPay";
+
+  private PaymentsSdk.GooglePayClient client;
+  private long ttlMs = DEFAULT_TTL_MS;
+  private boolean hasCachedValue;
+  private long cachedAtMs;
+  // Identifies the running probe, so that answers from a replaced client's probe are ignored.
+  private Object inFlight;
+  private final List<Consumer<Boolean>> waiting = new ArrayList<>();
+
+  synchronized long ttlMs() {
+    return ttlMs;
+  }
+
+  synchronized void reset(PaymentsSdk.GooglePayClient client, long ttlMs) {
+    this.client = client;
+    this.ttlMs = ttlMs;
+    this.hasCachedValue = false;
+    this.inFlight = null;
+  }
+
+  /**
+   * Swaps the client without dropping the cached answer, e.g. when the activity it was created for
+   * is recreated. A null client parks new callers until the next client is set.
+   */
+  void setClient(PaymentsSdk.GooglePayClient client) {
+    boolean hasWaiting;
+    synchronized (this) {
+      this.client = client;
+      hasWaiting = !waiting.isEmpty();
+    }
+    if (hasWaiting) {
+      warmUp();
+    }
+  }
+
+  /** Starts a probe unless a fresh value is cached or a probe is already running. */
+  void warmUp() {
+    whenReady(null);
+  }
+
+  void whenReady(Consumer<Boolean> callback) {
+    Object probe;
+    PaymentsSdk.GooglePayClient probeClient = null;
+    synchronized (this) {
+      if (hasCachedValue && SystemClock.elapsedRealtime() - cachedAtMs < ttlMs) {
+        probe = null;
+      } else {
+        if (callback != null) {
+          waiting.add(callback);
+        }
+        if (inFlight != null || client == null) {
+          return;
+        }
+        probe = new Object();
+        probeClient = client;
+        inFlight = probe;
+      }
+    }
+    if (probe == null) {
+      if (callback != null) {
+        callback.accept(true);
+      }
+      return;
+    }
+    int traceCookie = PluginTrace.beginAsync(TRACE_IS_READY_TO_PAY);
+    probeClient.isReadyToPay(ready -> {
+      PluginTrace.endAsync(TRACE_IS_READY_TO_PAY, traceCookie);
+      onProbeComplete(probe, ready);
+    });
+  }
+
+  private void onProbeComplete(Object probe, boolean ready) {
+    List<Consumer<Boolean>> callbacks;
+    synchronized (this) {
+      if (inFlight != probe) {
+        return;
+      }
+      inFlight = null;
+      if (ready && ttlMs > 0) {
+        hasCachedValue = true;
+        cachedAtMs = SystemClock.elapsedRealtime();
+      }
+      callbacks = new ArrayList<>(waiting);
+      waiting.clear();
+    }
+    for (Consumer<Boolean> callback : callbacks) {
+      callback.accept(ready);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package sqip.flutter.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log2 latency histogram. Bucket {@code i} counts samples shorter than {@code 2^i}
+ * microseconds; the last bucket also counts everything slower.
+ */
+final class LatencyHistogram {
+
+  static final int BUCKET_COUNT = 32;
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+  void record(long elapsedNanos) {
+    count.incrementAndGet();
+    totalNanos.addAndGet(elapsedNanos);
+    long max;
+    do {
+      max = maxNanos.get();
+    } while (elapsedNanos > max && !maxNanos.compareAndSet(max, elapsedNanos));
+    buckets.incrementAndGet(bucketOf(elapsedNanos / 1000));
+  }
+
+  long count() {
+    return count.get();
+  }
+
+  /** Writes count, total, max, estimated percentiles and the raw buckets into {@code map}. */
+  void writeTo(Map<String, Object> map) {
+    long samples = count.get();
+    List<Long> histogram = new ArrayList<>(BUCKET_COUNT);
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      histogram.add(buckets.get(i));
+    }
+    map.put("count", samples);
+    map.put("totalMicros", totalNanos.get() / 1000);
+    map.put("maxMicros", maxNanos.get() / 1000);
+    map.put("p50Micros", percentileMicros(histogram, samples, 0.50));
+    map.put("p95Micros", percentileMicros(histogram, samples, 0.95));
+    map.put("p99Micros", percentileMicros(histogram, samples, 0.99));
+    map.put("histogram", histogram);
+  }
+
+  Map<String, Object> toMapObject() {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    writeTo(mapToReturn);
+    return mapToReturn;
+  }
+
+  private static int bucketOf(long micros) {
+    int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return Math.min(bucket, BUCKET_COUNT - 1);
+  }
+
+  /** Upper bound of the bucket holding the given percentile, or 0 without samples. */
+  private static long percentileMicros(List<Long> histogram, long samples, double percentile) {
+    if (samples == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(samples * percentile);
+    long seen = 0;
+    for (int i = 0; i < histogram.size(); i++) {
+      seen += histogram.get(i);
+      if (seen >= rank) {
+        return 1L << i;
+      }
+    }
+    return 1L << (histogram.size() - 1);
+  }
+}
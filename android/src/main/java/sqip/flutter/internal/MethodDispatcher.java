@@ -0,0 +1,131 @@
+package sqip.flutter.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Routes channel calls to registered handlers. Each call is checked against the handler's
+ * {@link MethodSchema} and {@link Threading} contract first, and its invocation count, errors and
+ * time spent on the calling thread are recorded per method. Calls and results also go to the
+ * {@link ChannelRecorder} while it is recording.
+ */
+public final class MethodDispatcher {
+
+  private static final String FL_INVALID_ARGUMENT = "fl_invalid_argument";
+  private static final String FL_WRONG_THREAD = "fl_wrong_thread";
+
+  /** Where a handler may run. */
+  public enum Threading {
+    /** Touches activities or other main-thread-only state; only dispatched from the platform thread. */
+    MAIN_THREAD,
+    /** Thread-safe bookkeeping; dispatched from the background task queue, or the platform thread. */
+    BACKGROUND
+  }
+
+  public interface Handler {
+    void handle(MethodCall call, MethodChannel.Result result);
+  }
+
+  private static final class Registration {
+    final String method;
+    final Threading threading;
+    final MethodSchema schema;
+    final Handler handler;
+    final MethodMetrics metrics = new MethodMetrics();
+    final String traceName;
+
+    Registration(String method, Threading threading, MethodSchema schema, Handler handler) {
+      this.method = method;
+      this.threading = threading;
+      this.schema = schema;
+      this.handler = handler;
+      this.traceName = "sqip:" + method;
+    }
+  }
+
+  private final Map<String, Registration> registrations = new LinkedHashMap<>();
+
+  /** Registers {@code handler} for {@code method}. Not thread-safe; register before dispatching. */
+  public MethodDispatcher register(String method, Threading threading, MethodSchema schema, Handler handler) {
+    registrations.put(method, new Registration(method, threading, schema, handler));
+    return this;
+  }
+
+  /** Dispatches a call that arrived on a channel running on {@code callingThread}. */
+  public void dispatch(MethodCall call, MethodChannel.Result result, Threading callingThread) {
+    FlightRecorder.record("call", call.method, null);
+    ChannelRecorder.recordCall(call, callingThread);
+    Registration registration = registrations.get(call.method);
+    if (registration == null) {
+      result.notImplemented();
+      return;
+    }
+    if (registration.threading == Threading.MAIN_THREAD && callingThread != Threading.MAIN_THREAD) {
+      registration.metrics.recordError();
+      ErrorCatalog.reject(result, FL_WRONG_THREAD, call.method + " must be called on the main channel.");
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    boolean traced = PluginTrace.begin(registration.traceName);
+    try {
+      String mismatch = registration.schema.validate(call);
+      if (mismatch != null) {
+        registration.metrics.recordError();
+        ErrorCatalog.reject(result, FL_INVALID_ARGUMENT, call.method + ": " + mismatch);
+        return;
+      }
+      registration.handler.handle(call, new MeteredResult(result, registration));
+    } catch (RuntimeException e) {
+      registration.metrics.recordError();
+      throw e;
+    } finally {
+      PluginTrace.end(traced);
+      registration.metrics.record(System.nanoTime() - startNanos);
+    }
+  }
+
+  /** Metrics of every registered method, keyed by method name. */
+  public Map<String, Object> metrics() {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    for (Map.Entry<String, Registration> entry : registrations.entrySet()) {
+      mapToReturn.put(entry.getKey(), entry.getValue().metrics.toMapObject());
+    }
+    return mapToReturn;
+  }
+
+  private static final class MeteredResult implements MethodChannel.Result {
+    private final MethodChannel.Result delegate;
+    private final String method;
+    private final MethodMetrics metrics;
+
+    MeteredResult(MethodChannel.Result delegate, Registration registration) {
+      this.delegate = delegate;
+      this.method = registration.method;
+      this.metrics = registration.metrics;
+    }
+
+    @Override
+    public void success(Object result) {
+      FlightRecorder.record("return", method, null);
+      ChannelRecorder.recordSuccess(method, result);
+      delegate.success(result);
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+      metrics.recordError();
+      FlightRecorder.record("returnError", method, errorCode);
+      ChannelRecorder.recordError(method, errorCode);
+      delegate.error(errorCode, errorMessage, errorDetails);
+    }
+
+    @Override
+    public void notImplemented() {
+      delegate.notImplemented();
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package sqip.flutter.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Invocation count, error count and a {@link LatencyHistogram} of the time spent on the calling
+ * thread for one channel method.
+ */
+final class MethodMetrics {
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicLong errors = new AtomicLong();
+
+  void record(long elapsedNanos) {
+    latency.record(elapsedNanos);
+  }
+
+  void recordError() {
+    errors.incrementAndGet();
+  }
+
+  Map<String, Object> toMapObject() {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    mapToReturn.put("invocations", latency.count());
+    mapToReturn.put("errors", errors.get());
+    latency.writeTo(mapToReturn);
+    return mapToReturn;
+  }
+}
@@ -0,0 +1,79 @@
+package sqip.flutter.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+
+/**
+ * The arguments a channel method expects. {@link MethodDispatcher} checks a call against its
+ * schema before the handler runs, so handlers can read required arguments without null or type
+ * checks.
+ */
+public final class MethodSchema {
+
+  public static final MethodSchema NONE = new MethodSchema(new Argument[0]);
+
+  private final Argument[] arguments;
+
+  private MethodSchema(Argument[] arguments) {
+    this.arguments = arguments;
+  }
+
+  public static MethodSchema of(Argument... arguments) {
+    return new MethodSchema(arguments);
+  }
+
+  public static Argument required(String name, Class<?> type) {
+    return new Argument(name, type, true);
+  }
+
+  public static Argument optional(String name, Class<?> type) {
+    return new Argument(name, type, false);
+  }
+
+  /** Returns a description of the first mismatch, or null when the call matches. */
+  String validate(MethodCall call) {
+    for (Argument argument : arguments) {
+      Object value = call.argument(argument.name);
+      if (value == null) {
+        if (argument.required) {
+          return argument.name + " is required.";
+        }
+        continue;
+      }
+      if (!argument.accepts(value)) {
+        return argument.name + " must be a " + argument.type.getSimpleName()
+            + ", got " + value.getClass().getSimpleName() + ".";
+      }
+    }
+    return null;
+  }
+
+  public static final class Argument {
+    final String name;
+    final Class<?> type;
+    final boolean required;
+
+    private Argument(String name, Class<?> type, boolean required) {
+      this.name = name;
+      this.type = type;
+      this.required = required;
+    }
+
+    boolean accepts(Object value) {
+      // StandardMessageCodec decodes Dart ints as Integer when they fit in 32 bits and as Long
+      // otherwise, so a Long is never a valid Integer argument, and handlers can unbox Integers.
+      if (type == Long.class) {
+        return value instanceof Integer || value instanceof Long;
+      }
+      if (type == Map.class) {
+        return value instanceof Map;
+      }
+      if (type == List.class) {
+        return value instanceof List;
+      }
+      return type.isInstance(value);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package sqip.flutter.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Exchanges payment tokens for nonces on a dedicated executor. A token that is already being
+ * exchanged, or was exchanged successfully recently, is ignored so that a redelivered activity
+ * result does not exchange it twice; a token whose exchange failed or timed out can be submitted
+ * again. Results the {@link RetryPolicy} marks as transient are retried with exponential backoff
+ * until {@code maxAttempts} or the overall deadline is reached. Deadlines run on their own thread,
+ * so they fire even while every attempt thread is blocked in an exchange. The listener is called
+ * exactly once per accepted token, on an attempt thread or, on timeout, on the deadline thread.
+ *
+ * @param <T> the exchange result
+ */
+final class NonceExchangePipeline<T> {
+
+  interface Exchange<T> {
+    /** Performs one blocking exchange attempt. */
+    T exchange(String token) throws Exception;
+  }
+
+  interface RetryPolicy<T> {
+    boolean isTransient(T result);
+  }
+
+  interface SuccessPolicy<T> {
+    boolean isSuccess(T result);
+  }
+
+  interface Listener<T> {
+    void onResult(T result);
+
+    /** Called when an attempt threw, with the last exception. */
+    void onFailure(Exception exception);
+
+    void onTimeout();
+  }
+
+  private static final int RECENT_TOKEN_COUNT = 8;
+  private static final String TRACE_EXCHANGE = "sqip:nonceExchange";
+  private static final String TRACE_ATTEMPT = "sqip:nonceExchangeAttempt";
+
+  private final SuccessPolicy<T> successPolicy;
+  private final RetryPolicy<T> retryPolicy;
+  private final ScheduledExecutorService executor;
+  private final ScheduledExecutorService deadlines;
+  private final Map<String, Attempt> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, Boolean> recentTokens = new LinkedHashMap<String, Boolean>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+      return size() > RECENT_TOKEN_COUNT;
+    }
+  };
+  private volatile int maxAttempts;
+  private volatile long initialBackoffMs;
+  private volatile long deadlineMs;
+
+  NonceExchangePipeline(SuccessPolicy<T> successPolicy, RetryPolicy<T> retryPolicy, int maxAttempts,
+      long initialBackoffMs, long deadlineMs) {
+    this.successPolicy = successPolicy;
+    this.retryPolicy = retryPolicy;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMs = initialBackoffMs;
+    this.deadlineMs = deadlineMs;
+    // Attempts and retries; two exchanges can block at once.
+    this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "sqip-flutter-nonce-exchange");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.deadlines = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "sqip-flutter-nonce-exchange-deadline");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  void configure(int maxAttempts, long initialBackoffMs, long deadlineMs) {
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMs = initialBackoffMs;
+    this.deadlineMs = deadlineMs;
+  }
+
+  /** @return false when {@code token} is already in flight or was exchanged successfully recently. */
+  boolean submit(String token, Exchange<T> exchange, Listener<T> listener) {
+    synchronized (recentTokens) {
+      if (recentTokens.containsKey(token)) {
+        return false;
+      }
+      recentTokens.put(token, Boolean.TRUE);
+    }
+    Attempt attempt = new Attempt(token, exchange, listener);
+    if (inFlight.putIfAbsent(token, attempt) != null) {
+      return false;
+    }
+    attempt.traceCookie = PluginTrace.beginAsync(TRACE_EXCHANGE);
+    long deadline = deadlineMs;
+    if (deadline > 0) {
+      attempt.deadlineTask = deadlines.schedule(attempt::timeOut, deadline, TimeUnit.MILLISECONDS);
+    }
+    executor.execute(attempt::run);
+    return true;
+  }
+
+  private final class Attempt {
+    final String token;
+    final Exchange<T> exchange;
+    final Listener<T> listener;
+    final AtomicBoolean done = new AtomicBoolean();
+    // Async slice from submit until the listener is called.
+    volatile int traceCookie = PluginTrace.NO_COOKIE;
+    volatile ScheduledFuture<?> deadlineTask;
+    int attempts;
+
+    Attempt(String token, Exchange<T> exchange, Listener<T> listener) {
+      this.token = token;
+      this.exchange = exchange;
+      this.listener = listener;
+    }
+
+    void run() {
+      if (done.get()) {
+        return;
+      }
+      attempts++;
+      T result;
+      boolean traced = PluginTrace.begin(TRACE_ATTEMPT);
+      try {
+        result = exchange.exchange(token);
+      } catch (Exception e) {
+        if (!retry() && finish(false)) {
+          listener.onFailure(e);
+        }
+        return;
+      } finally {
+        PluginTrace.end(traced);
+      }
+      if (retryPolicy.isTransient(result) && retry()) {
+        return;
+      }
+      if (finish(successPolicy.isSuccess(result))) {
+        listener.onResult(result);
+      }
+    }
+
+    private boolean retry() {
+      if (attempts >= maxAttempts || done.get()) {
+        return false;
+      }
+      long backoffMs = initialBackoffMs << (attempts - 1);
+      executor.schedule(this::run, backoffMs, TimeUnit.MILLISECONDS);
+      return true;
+    }
+
+    void timeOut() {
+      if (finish(false)) {
+        listener.onTimeout();
+      }
+    }
+
+    /** @param succeeded false lets the token be submitted again, e.g. when the buyer retries. */
+    private boolean finish(boolean succeeded) {
+      if (!done.compareAndSet(false, true)) {
+        return false;
+      }
+      inFlight.remove(token, this);
+      if (!succeeded) {
+        synchronized (recentTokens) {
+          recentTokens.remove(token);
+        }
+      }
+      PluginTrace.endAsync(TRACE_EXCHANGE, traceCookie);
+      ScheduledFuture<?> task = deadlineTask;
+      if (task != null) {
+        task.cancel(false);
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package sqip.flutter.internal;
+
+import android.app.Activity;
+import android.content.Intent;
+
+import java.util.function.Consumer;
+
+import sqip.BuyerVerificationResult;
+import sqip.Callback;
+import sqip.CardEntryActivityResult;
+import sqip.CardNonceBackgroundHandler;
+import sqip.GooglePayNonceResult;
+import sqip.VerificationParameters;
+
+/**
+ * The In-App Payments SDK and Google Pay entry points the modules use. {@link AndroidPaymentsSdk}
+ * calls the real SDK; other implementations let the plugin run without a device.
+ */
+public interface PaymentsSdk {
+
+  void setSquareApplicationId(String applicationId);
+
+  /** Loads and initializes the SDK and Google Pay classes used by the first checkout. */
+  void preloadClasses() throws ClassNotFoundException;
+
+  void setCardNonceBackgroundHandler(CardNonceBackgroundHandler handler);
+
+  void startCardEntryActivity(Activity activity, boolean collectPostalCode);
+
+  void startGiftCardEntryActivity(Activity activity);
+
+  void handleCardEntryResult(Intent data, Callback<CardEntryActivityResult> callback);
+
+  void startBuyerVerification(Activity activity, VerificationParameters parameters);
+
+  void handleBuyerVerificationResult(Intent data, Callback<BuyerVerificationResult> callback);
+
+  GooglePayClient createGooglePayClient(Activity activity, int environment);
+
+  /** @return the Google Pay payment method token carried by a successful payment sheet result. */
+  String getGooglePayToken(Intent data);
+
+  /** Exchanges a Google Pay token for a nonce, blocking the calling thread. */
+  GooglePayNonceResult requestGooglePayNonce(String googlePayToken) throws Exception;
+
+  /** A Google Pay client bound to the activity it was created for. */
+  interface GooglePayClient {
+
+    /** Calls {@code callback} with whether the readiness request succeeded, on any thread. */
+    void isReadyToPay(Consumer<Boolean> callback);
+
+    /** Shows the payment sheet; its result is delivered to the activity with {@code requestCode}. */
+    void loadPaymentData(Activity activity, String squareLocationId, String price, String currencyCode, int priceStatus, int requestCode);
+  }
+}
@@ -0,0 +1,77 @@
+package sqip.flutter.internal;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Systrace / Perfetto sections for the plugin's hot paths, off until
+ * {@link #setEnabled(boolean)} turns them on. While off, each call site costs one volatile read.
+ *
+ * <p>Sections are only ended if they were begun, so toggling tracing while a section is open does
+ * not unbalance the thread's trace stack:
+ *
+ * <pre>
+ * boolean traced = PluginTrace.begin(name);
+ * try {
+ *   ...
+ * } finally {
+ *   PluginTrace.end(traced);
+ * }
+ * </pre>
+ *
+ * Async slices are for work that ends on another thread or in a callback; {@link #beginAsync}
+ * returns a cookie to pass to {@link #endAsync}, or {@link #NO_COOKIE} when nothing was begun.
+ */
+public final class PluginTrace {
+
+  public static final int NO_COOKIE = 0;
+
+  private static volatile boolean enabled;
+  private static final AtomicInteger nextCookie = new AtomicInteger();
+
+  private PluginTrace() {}
+
+  public static void setEnabled(boolean enabled) {
+    PluginTrace.enabled = enabled;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Begins a section on the calling thread. Names are cut by the platform at 127 characters. */
+  public static boolean begin(String name) {
+    if (!enabled) {
+      return false;
+    }
+    Trace.beginSection(name);
+    return true;
+  }
+
+  public static void end(boolean traced) {
+    if (traced) {
+      Trace.endSection();
+    }
+  }
+
+  /** Begins an async slice; async slices need API 29, so older devices get {@link #NO_COOKIE}. */
+  public static int beginAsync(String name) {
+    if (!enabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+      return NO_COOKIE;
+    }
+    int cookie = nextCookie.incrementAndGet();
+    if (cookie == NO_COOKIE) {
+      cookie = nextCookie.incrementAndGet();
+    }
+    Trace.beginAsyncSection(name, cookie);
+    return cookie;
+  }
+
+  public static void endAsync(String name, int cookie) {
+    if (cookie != NO_COOKIE) {
+      Trace.endAsyncSection(name, cookie);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package sqip.flutter.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodChannel;
+
+/**
+ * Does the first-use work of a checkout ahead of time: class loading, converter initialization,
+ * theme resolution and Google Pay client construction. Steps run one after another on the
+ * {@link BackgroundThread}, and the report, one entry per step with {@code completed} and
+ * {@code micros}, is delivered on the main thread.
+ */
+public final class Prewarmer {
+
+  public static final String SDK_CLASSES = "sdkClasses";
+  public static final String CONVERTERS = "converters";
+  public static final String CARD_ENTRY_THEME = "cardEntryTheme";
+  public static final String GOOGLE_PAY_CLIENT = "googlePayClient";
+
+  public interface Step {
+    /** @return false when the step had nothing to warm up, e.g. no activity is attached. */
+    boolean run() throws Exception;
+  }
+
+  private final Map<String, Step> steps = new LinkedHashMap<>();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  public Prewarmer step(String name, Step step) {
+    steps.put(name, step);
+    return this;
+  }
+
+  public void run(MethodChannel.Result result) {
+    BackgroundThread.executor.execute(() -> {
+      Map<String, Object> report = new LinkedHashMap<>();
+      for (Map.Entry<String, Step> entry : steps.entrySet()) {
+        report.put(entry.getKey(), runStep(entry.getKey(), entry.getValue()));
+      }
+      mainHandler.post(() -> result.success(report));
+    });
+  }
+
+  private static Map<String, Object> runStep(String name, Step step) {
+    Map<String, Object> stepReport = new LinkedHashMap<>();
+    long startNanos = System.nanoTime();
+    boolean traced = PluginTrace.isEnabled() && PluginTrace.begin("sqip:prewarm " + name);
+    boolean completed;
+    try {
+      completed = step.run();
+    } catch (Exception e) {
+      completed = false;
+      stepReport.put("error", e.toString());
+    } finally {
+      PluginTrace.end(traced);
+    }
+    stepReport.put("completed", completed);
+    stepReport.put("micros", (System.nanoTime() - startNanos) / 1_000);
+    return stepReport;
+  }
+}
@@ -0,0 +1,38 @@
+package sqip.flutter.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Time the plugin spends in its attach callbacks and creating its modules, so that its share of
+ * app cold start can be checked. Each phase keeps a {@link LatencyHistogram} because engine and
+ * activity attach repeat on configuration changes and with multiple engines.
+ */
+public final class StartupTimings {
+
+  public static final String ATTACH_TO_ENGINE = "attachToEngine";
+  public static final String ATTACH_TO_ACTIVITY = "attachToActivity";
+  public static final String CREATE_CARD_ENTRY_MODULE = "createCardEntryModule";
+  public static final String CREATE_GOOGLE_PAY_MODULE = "createGooglePayModule";
+
+  private final ConcurrentMap<String, LatencyHistogram> phases = new ConcurrentHashMap<>();
+
+  /** Records the time from {@code startNanos}, a {@link System#nanoTime()} value, until now. */
+  public void record(String phase, long startNanos) {
+    long elapsedNanos = System.nanoTime() - startNanos;
+    phases.computeIfAbsent(phase, key -> new LatencyHistogram()).record(elapsedNanos);
+  }
+
+  public Map<String, Object> toMapObject() {
+    Map<String, Object> mapToReturn = new LinkedHashMap<>();
+    for (String phase : new String[] { ATTACH_TO_ENGINE, ATTACH_TO_ACTIVITY, CREATE_CARD_ENTRY_MODULE, CREATE_GOOGLE_PAY_MODULE }) {
+      LatencyHistogram histogram = phases.get(phase);
+      if (histogram != null) {
+        mapToReturn.put(phase, histogram.toMapObject());
+      }
+    }
+    return mapToReturn;
+  }
+}
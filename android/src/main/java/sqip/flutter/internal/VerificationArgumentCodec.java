@@ -0,0 +1,77 @@
+package sqip.flutter.internal;
+
+import java.nio.ByteBuffer;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+import sqip.Money;
+import sqip.flutter.internal.VerificationArguments.Invalid;
+import sqip.flutter.internal.VerificationArguments.InvalidArgumentException;
+
+/**
+ * Reads the Money, Contact and BuyerAction values written by lib/src/verification_argument_codec.dart
+ * directly into SDK objects. The type bytes and field order must stay in sync with it. Every other
+ * value is handled by {@link StandardMessageCodec}, and nothing is written with the extra types.
+ */
+public final class VerificationArgumentCodec extends StandardMessageCodec {
+  public static final VerificationArgumentCodec INSTANCE = new VerificationArgumentCodec();
+
+  private static final byte MONEY = (byte) 128;
+  private static final byte CONTACT = (byte) 129;
+  private static final byte BUYER_ACTION = (byte) 130;
+
+  private VerificationArgumentCodec() {}
+
+  @Override
+  protected Object readValueOfType(byte type, ByteBuffer buffer) {
+    switch (type) {
+      case MONEY:
+        return readMoney(buffer);
+      case CONTACT:
+        return readContact(buffer);
+      case BUYER_ACTION:
+        return readBuyerAction(buffer);
+      default:
+        return super.readValueOfType(type, buffer);
+    }
+  }
+
+  private Object readMoney(ByteBuffer buffer) {
+    Object amount = readValue(buffer);
+    Object currencyCode = readValue(buffer);
+    try {
+      return VerificationArguments.toMoney(amount, currencyCode);
+    } catch (InvalidArgumentException e) {
+      return new Invalid(e);
+    }
+  }
+
+  private Object readContact(ByteBuffer buffer) {
+    Object givenName = readValue(buffer);
+    Object familyName = readValue(buffer);
+    Object addressLines = readValue(buffer);
+    Object city = readValue(buffer);
+    Object countryCode = readValue(buffer);
+    Object email = readValue(buffer);
+    Object phone = readValue(buffer);
+    Object postalCode = readValue(buffer);
+    Object region = readValue(buffer);
+    try {
+      return VerificationArguments.toContact(givenName, familyName, addressLines, city, countryCode, email, phone, postalCode, region);
+    } catch (InvalidArgumentException e) {
+      return new Invalid(e);
+    }
+  }
+
+  private Object readBuyerAction(ByteBuffer buffer) {
+    Object action = readValue(buffer);
+    Object money = readValue(buffer);
+    if (money instanceof Invalid) {
+      return money;
+    }
+    try {
+      return VerificationArguments.toBuyerAction(action, money instanceof Money ? (Money) money : null);
+    } catch (InvalidArgumentException e) {
+      return new Invalid(e);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package sqip.flutter.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import sqip.BuyerAction;
+import sqip.Contact;
+import sqip.Country;
+import sqip.Currency;
+import sqip.Money;
+
+/**
+ * Decoded arguments of startCardEntryFlowWithBuyerVerification and startBuyerVerificationFlow.
+ * On Android the Dart side sends Money, Contact and BuyerAction as typed values that
+ * {@link VerificationArgumentCodec} decodes straight into SDK objects; the map format is still
+ * accepted for callers that do not use the typed codec.
+ */
+public final class VerificationArguments {
+
+  static final String FL_INVALID_MONEY = "fl_invalid_money";
+  static final String FL_INVALID_CONTACT = "fl_invalid_contact";
+  static final String FL_INVALID_BUYER_ACTION = "fl_invalid_buyer_action";
+
+  private static final String BUYER_ACTION_STORE = "Store";
+  private static final String BUYER_ACTION_CHARGE = "Charge";
+  private static final String DEFAULT_COUNTRY_CODE = "US";
+
+  private static final Map<String, Currency> currencies = new ConcurrentHashMap<>();
+  private static final Map<String, Country> countries = new ConcurrentHashMap<>();
+
+  public final String squareLocationId;
+  public final BuyerAction buyerAction;
+  public final Contact contact;
+
+  private VerificationArguments(String squareLocationId, BuyerAction buyerAction, Contact contact) {
+    this.squareLocationId = squareLocationId;
+    this.buyerAction = buyerAction;
+    this.contact = contact;
+  }
+
+  /**
+   * Decodes the verification arguments of {@code call}, or reports a USAGE_ERROR on
+   * {@code result} and returns null when they are invalid.
+   */
+  public static VerificationArguments decode(MethodCall call, MethodChannel.Result result) {
+    try {
+      return from(call);
+    } catch (InvalidArgumentException e) {
+      ErrorCatalog.reject(result, e.debugCode, e.getMessage());
+      return null;
+    }
+  }
+
+  static VerificationArguments from(MethodCall call) throws InvalidArgumentException {
+    String squareLocationId = call.argument("squareLocationId");
+    Object buyerAction = unwrap(call.argument("buyerAction"));
+    Object contact = unwrap(call.argument("contact"));
+
+    BuyerAction decodedBuyerAction;
+    if (buyerAction instanceof BuyerAction) {
+      decodedBuyerAction = (BuyerAction) buyerAction;
+    } else {
+      Object money = unwrap(call.argument("money"));
+      Money decodedMoney = money instanceof Map ? toMoney((Map<?, ?>) money) : null;
+      decodedBuyerAction = toBuyerAction(buyerAction, decodedMoney);
+    }
+
+    Contact decodedContact;
+    if (contact instanceof Contact) {
+      decodedContact = (Contact) contact;
+    } else if (contact instanceof Map) {
+      decodedContact = toContact((Map<?, ?>) contact);
+    } else {
+      throw new InvalidArgumentException(FL_INVALID_CONTACT, "contact is missing.");
+    }
+
+    return new VerificationArguments(squareLocationId, decodedBuyerAction, decodedContact);
+  }
+
+  static Money toMoney(Object amount, Object currencyCode) throws InvalidArgumentException {
+    if (!(amount instanceof Integer)) {
+      throw new InvalidArgumentException(FL_INVALID_MONEY, "money.amount must be an int, got " + amount + ".");
+    }
+    if (!(currencyCode instanceof String)) {
+      throw new InvalidArgumentException(FL_INVALID_MONEY, "money.currencyCode must be a String, got " + currencyCode + ".");
+    }
+    return new Money((Integer) amount, currency((String) currencyCode));
+  }
+
+  static BuyerAction toBuyerAction(Object action, Money money) throws InvalidArgumentException {
+    if (BUYER_ACTION_STORE.equals(action)) {
+      return new BuyerAction.Store();
+    }
+    if (!BUYER_ACTION_CHARGE.equals(action)) {
+      throw new InvalidArgumentException(FL_INVALID_BUYER_ACTION, "buyerAction must be Charge or Store, got " + action + ".");
+    }
+    if (money == null) {
+      throw new InvalidArgumentException(FL_INVALID_MONEY, "money is required for the Charge buyer action.");
+    }
+    return new BuyerAction.Charge(money);
+  }
+
+  static Contact toContact(Object givenName, Object familyName, Object addressLines, Object city,
+      Object countryCode, Object email, Object phone, Object postalCode, Object region) throws InvalidArgumentException {
+    if (addressLines != null && !(addressLines instanceof List)) {
+      throw new InvalidArgumentException(FL_INVALID_CONTACT, "contact.addressLines must be a List, got " + addressLines + ".");
+    }
+    List<String> lines = new ArrayList<>();
+    if (addressLines != null) {
+      for (Object line : (List<?>) addressLines) {
+        lines.add(String.valueOf(line));
+      }
+    }
+    return new Contact.Builder()
+        .familyName(stringOrEmpty(familyName))
+        .email(stringOrEmpty(email))
+        .addressLines(lines)
+        .city(stringOrEmpty(city))
+        .countryCode(country(countryCode != null ? countryCode.toString() : DEFAULT_COUNTRY_CODE))
+        .postalCode(stringOrEmpty(postalCode))
+        .phone(stringOrEmpty(phone))
+        .region(stringOrEmpty(region))
+        .build(stringOrEmpty(givenName));
+  }
+
+  private static Money toMoney(Map<?, ?> moneyMap) throws InvalidArgumentException {
+    return toMoney(moneyMap.get("amount"), moneyMap.get("currencyCode"));
+  }
+
+  private static Contact toContact(Map<?, ?> contactMap) throws InvalidArgumentException {
+    return toContact(
+        contactMap.get("givenName"),
+        contactMap.get("familyName"),
+        contactMap.get("addressLines"),
+        contactMap.get("city"),
+        contactMap.get("countryCode"),
+        contactMap.get("email"),
+        contactMap.get("phone"),
+        contactMap.get("postalCode"),
+        contactMap.get("region"));
+  }
+
+  private static Currency currency(String currencyCode) throws InvalidArgumentException {
+    Currency currency = currencies.get(currencyCode);
+    if (currency == null) {
+      try {
+        currency = Currency.valueOf(currencyCode);
+      } catch (IllegalArgumentException e) {
+        throw new InvalidArgumentException(FL_INVALID_MONEY, "Unknown currency code " + currencyCode + ".");
+      }
+      currencies.put(currencyCode, currency);
+    }
+    return currency;
+  }
+
+  private static Country country(String countryCode) throws InvalidArgumentException {
+    Country country = countries.get(countryCode);
+    if (country == null) {
+      try {
+        country = Country.valueOf(countryCode);
+      } catch (IllegalArgumentException e) {
+        throw new InvalidArgumentException(FL_INVALID_CONTACT, "Unknown country code " + countryCode + ".");
+      }
+      countries.put(countryCode, country);
+    }
+    return country;
+  }
+
+  private static String stringOrEmpty(Object value) {
+    return value != null ? value.toString() : "";
+  }
+
+  private static Object unwrap(Object value) throws InvalidArgumentException {
+    if (value instanceof Invalid) {
+      throw ((Invalid) value).exception;
+    }
+    return value;
+  }
+
+  /** Thrown when a verification argument is missing or malformed. */
+  static final class InvalidArgumentException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final String debugCode;
+
+    InvalidArgumentException(String debugCode, String message) {
+      super(message);
+      this.debugCode = debugCode;
+    }
+  }
+
+  /**
+   * Stands in for a typed value the codec could not decode, so the error reaches the method
+   * handler as a structured USAGE_ERROR instead of failing the whole message.
+   */
+  static final class Invalid {
+    final InvalidArgumentException exception;
+
+    Invalid(InvalidArgumentException exception) {
+      this.exception = exception;
+    }
+  }
+}
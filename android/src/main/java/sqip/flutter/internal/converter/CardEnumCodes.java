@@ -0,0 +1,78 @@
+/*
+ Copyright 2018 Square Inc.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+package sqip.flutter.internal.converter;
+
+import sqip.Card;
+
+/**
+ * Stable codes for the card enums. They index the constant tables in {@link CardConverter} and in
+ * compact_result_codec.dart, so they are pinned here rather than taken from the SDK enum ordinals.
+ */
+final class CardEnumCodes {
+
+  private CardEnumCodes() {}
+
+  static int brandCode(Card.Brand brand) {
+    switch (brand) {
+      case OTHER_BRAND:
+        return 0;
+      case VISA:
+        return 1;
+      case MASTERCARD:
+        return 2;
+      case AMERICAN_EXPRESS:
+        return 3;
+      case DISCOVER:
+        return 4;
+      case DISCOVER_DINERS:
+        return 5;
+      case JCB:
+        return 6;
+      case CHINA_UNION_PAY:
+        return 7;
+      case SQUARE_GIFT_CARD:
+        return 8;
+      default:
+        throw new RuntimeException("Unexpected brand value: " + brand.name());
+    }
+  }
+
+  static int typeCode(Card.Type type) {
+    switch (type) {
+      case DEBIT:
+        return 0;
+      case CREDIT:
+        return 1;
+      case UNKNOWN:
+        return 2;
+      default:
+        throw new RuntimeException("Unexpected card type value: " + type.name());
+    }
+  }
+
+  static int prepaidTypeCode(Card.PrepaidType prepaidType) {
+    switch (prepaidType) {
+      case PREPAID:
+        return 0;
+      case NOT_PREPAID:
+        return 1;
+      case UNKNOWN:
+        return 2;
+      default:
+        throw new RuntimeException("Unexpected card prepaid type value: " + prepaidType.name());
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ Copyright 2018 Square Inc.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+package sqip.flutter.internal.converter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import sqip.Card;
+import sqip.CardDetails;
+
+/**
+ * Writes card results into a single reused buffer instead of nested maps. The layout must stay in
+ * sync with lib/src/compact_result_codec.dart:
+ *
+ * <pre>
+ * u8 version, u8 event, u8 flags, str nonce,
+ * [str correlationId], [u8 brand, str lastFour, u8 expMonth, u16 expYear, u8 type, u8 prepaidType, [str postalCode]],
+ * [str token]
+ * </pre>
+ *
+ * Strings are a u16 byte length followed by UTF-8 bytes. The accepted natively flag has no payload. Multi-byte values are little endian.
+ * The returned buffer is only valid until the next call to {@link #encode}; callers must not share
+ * an encoder across threads.
+ */
+public final class CompactCardDetailsEncoder {
+  public static final int VERSION = 1;
+
+  public static final int EVENT_CARD_ENTRY_DID_OBTAIN_CARD_DETAILS = 0;
+  public static final int EVENT_GOOGLE_PAY_NONCE_REQUEST_SUCCESS = 1;
+  public static final int EVENT_BUYER_VERIFICATION_SUCCESS = 2;
+  public static final int EVENT_BUYER_VERIFICATION_CARD_DETAILS = 3;
+
+  private static final int FLAG_HAS_CARD = 1;
+  private static final int FLAG_HAS_CORRELATION_ID = 1 << 1;
+  private static final int FLAG_HAS_TOKEN = 1 << 2;
+  private static final int FLAG_HAS_POSTAL_CODE = 1 << 3;
+  private static final int FLAG_ACCEPTED_NATIVELY = 1 << 4;
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private ByteBuffer buffer = allocate(INITIAL_CAPACITY);
+
+  public ByteBuffer encode(int event, String nonce, Card card, String correlationId, String token, boolean acceptedNatively) {
+    buffer.clear();
+    int flags = 0;
+    if (card != null) {
+      flags |= FLAG_HAS_CARD;
+      if (card.getPostalCode() != null) {
+        flags |= FLAG_HAS_POSTAL_CODE;
+      }
+    }
+    if (correlationId != null) {
+      flags |= FLAG_HAS_CORRELATION_ID;
+    }
+    if (token != null) {
+      flags |= FLAG_HAS_TOKEN;
+    }
+    if (acceptedNatively) {
+      flags |= FLAG_ACCEPTED_NATIVELY;
+    }
+
+    ensureCapacity(3);
+    buffer.put((byte) VERSION);
+    buffer.put((byte) event);
+    buffer.put((byte) flags);
+    putString(nonce);
+    if (correlationId != null) {
+      putString(correlationId);
+    }
+    if (card != null) {
+      ensureCapacity(1);
+      buffer.put((byte) CardEnumCodes.brandCode(card.getBrand()));
+      putString(card.getLastFourDigits());
+      ensureCapacity(3);
+      buffer.put((byte) card.getExpirationMonth());
+      buffer.putShort((short) card.getExpirationYear());
+      ensureCapacity(2);
+      buffer.put((byte) CardEnumCodes.typeCode(card.getType()));
+      buffer.put((byte) CardEnumCodes.prepaidTypeCode(card.getPrepaidType()));
+      if (card.getPostalCode() != null) {
+        putString(card.getPostalCode());
+      }
+    }
+    if (token != null) {
+      putString(token);
+    }
+    // Flutter reads the message length from the buffer position.
+    return buffer;
+  }
+
+  public ByteBuffer encode(int event, CardDetails cardDetails, String correlationId, String token, boolean acceptedNatively) {
+    return encode(event, cardDetails.getNonce(), cardDetails.getCard(), correlationId, token, acceptedNatively);
+  }
+
+  private void putString(String value) {
+    int length = value.length();
+    ensureCapacity(2 + length);
+    int lengthPosition = buffer.position();
+    buffer.putShort((short) 0);
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        // Non-ASCII input is rare (postal codes only); fall back to a full UTF-8 encode.
+        buffer.position(lengthPosition);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        return;
+      }
+      buffer.put((byte) c);
+    }
+    buffer.putShort(lengthPosition, (short) length);
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (buffer.remaining() >= bytes) {
+      return;
+    }
+    ByteBuffer grown = allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
+  }
+
+  private static ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,284 @@
+package sqip.flutter;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.plugin.common.StandardMethodCodec;
+import sqip.Callback;
+import sqip.CardEntry;
+import sqip.CardEntryActivityResult;
+import sqip.flutter.internal.PaymentsSdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Rotates the activity while card entry and the Google Pay sheet are showing, and checks that the
+ * plugin keeps exactly one activity result listener, on the new activity, and that the result
+ * still reaches the flow or call that started it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConfigurationChangeTest {
+
+  private static final String EVENTS_CHANNEL = "square_in_app_payments/events";
+  private static final long TIMEOUT_MS = 5_000;
+
+  private final PaymentsSdk sdk = mock(PaymentsSdk.class);
+  private final PaymentsSdk.GooglePayClient googlePayClient = mock(PaymentsSdk.GooglePayClient.class);
+  private final Map<String, BinaryMessenger.BinaryMessageHandler> handlers = new ConcurrentHashMap<>();
+  private final List<String> events = new CopyOnWriteArrayList<>();
+  private SquareInAppPaymentsFlutterPlugin plugin;
+  private FakeActivityBinding original;
+  private FakeActivityBinding recreated;
+
+  @Before
+  public void setUp() {
+    when(sdk.createGooglePayClient(any(), anyInt())).thenReturn(googlePayClient);
+    doAnswer(invocation -> {
+      Consumer<Boolean> callback = invocation.getArgument(0);
+      callback.accept(true);
+      return null;
+    }).when(googlePayClient).isReadyToPay(any());
+
+    original = new FakeActivityBinding(Robolectric.buildActivity(Activity.class).setup().get());
+    recreated = new FakeActivityBinding(Robolectric.buildActivity(Activity.class).setup().get());
+    plugin = new SquareInAppPaymentsFlutterPlugin(sdk);
+    plugin.onAttachedToEngine(RuntimeEnvironment.getApplication(), fakeMessenger());
+    plugin.onAttachedToActivity(original.binding);
+    handlers.get(EVENTS_CHANNEL).onMessage(
+        readable(StandardMethodCodec.INSTANCE.encodeMethodCall(new MethodCall("listen", null))), reply -> {});
+  }
+
+  @After
+  public void tearDown() {
+    plugin.onDetachedFromActivity();
+    plugin.onDetachedFromEngine();
+  }
+
+  @Test
+  public void cardEntryResultAfterRotationReachesTheFlow() {
+    CardEntryActivityResult canceled = mock(CardEntryActivityResult.class);
+    when(canceled.isCanceled()).thenReturn(true);
+    doAnswer(invocation -> {
+      Callback<CardEntryActivityResult> callback = invocation.getArgument(1);
+      callback.onResult(canceled);
+      return null;
+    }).when(sdk).handleCardEntryResult(any(), any());
+
+    RecordingResult started = call("startCardEntryFlow", Collections.singletonMap("collectPostalCode", false));
+    assertTrue(started.completed);
+    verify(sdk).startCardEntryActivity(original.activity, false);
+
+    rotate();
+    recreated.deliver(CardEntry.DEFAULT_CARD_ENTRY_REQUEST_CODE, Activity.RESULT_CANCELED, new Intent());
+
+    awaitOnMainLooper(() -> events.contains("cardEntryCancel"));
+  }
+
+  @Test
+  public void googlePayResultAfterRotationReachesTheOriginalCall() {
+    Map<String, Object> arguments = new LinkedHashMap<>();
+    arguments.put("squareLocationId", "LOCATION");
+    arguments.put("environment", 3);
+    arguments.put("price", "1.00");
+    arguments.put("currencyCode", "USD");
+    arguments.put("priceStatus", 3);
+    RecordingResult checkout = call("googlePayCheckout", arguments);
+    ArgumentCaptor<Integer> requestCode = ArgumentCaptor.forClass(Integer.class);
+    awaitOnMainLooper(() -> {
+      try {
+        verify(googlePayClient).loadPaymentData(
+            eq(original.activity), eq("LOCATION"), eq("1.00"), eq("USD"), eq(3), requestCode.capture());
+        return true;
+      } catch (AssertionError notYet) {
+        return false;
+      }
+    });
+
+    rotate();
+    verify(sdk).createGooglePayClient(recreated.activity, 3);
+    recreated.deliver(requestCode.getValue(), Activity.RESULT_CANCELED, null);
+
+    awaitOnMainLooper(() -> checkout.completed);
+    assertNull(checkout.errorCode);
+    // A canceled checkout completes with null.
+    assertNull(checkout.value);
+  }
+
+  private void rotate() {
+    plugin.onDetachedFromActivityForConfigChanges();
+    plugin.onReattachedToActivityForConfigChanges(recreated.binding);
+    assertEquals(0, original.listeners.size());
+    assertEquals(1, recreated.listeners.size());
+  }
+
+  private RecordingResult call(String method, Object arguments) {
+    RecordingResult result = new RecordingResult();
+    plugin.onMethodCall(new MethodCall(method, arguments), result);
+    return result;
+  }
+
+  /** Runs the main looper, and lets the plugin's background threads run, until {@code done}. */
+  private static void awaitOnMainLooper(BooleanSupplier done) {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (!done.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new AssertionError("Timed out after " + TIMEOUT_MS + " ms");
+      }
+      shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(10));
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  private BinaryMessenger fakeMessenger() {
+    return (BinaryMessenger) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { BinaryMessenger.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "setMessageHandler":
+              if (args[1] == null) {
+                handlers.remove((String) args[0]);
+              } else {
+                handlers.put((String) args[0], (BinaryMessenger.BinaryMessageHandler) args[1]);
+              }
+              return null;
+            case "send":
+              if (EVENTS_CHANNEL.equals(args[0])) {
+                onEvents((ByteBuffer) args[1]);
+              }
+              return null;
+            case "makeBackgroundTaskQueue":
+              return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { BinaryMessenger.TaskQueue.class },
+                  (queue, queueMethod, queueArgs) -> objectMethod(queue, queueMethod.getName(), queueArgs));
+            default:
+              return objectMethod(proxy, method.getName(), args);
+          }
+        });
+  }
+
+  /** Records the method of every event in a batch of {@code [sequence, method, arguments]}. */
+  private void onEvents(ByteBuffer envelope) {
+    List<?> batch = (List<?>) StandardMethodCodec.INSTANCE.decodeEnvelope(readable(envelope));
+    for (Object event : batch) {
+      events.add((String) ((List<?>) event).get(1));
+    }
+  }
+
+  private static ByteBuffer readable(ByteBuffer buffer) {
+    // Codecs hand out buffers positioned after the last byte written.
+    if (buffer != null && buffer.position() != 0) {
+      buffer.flip();
+    }
+    return buffer;
+  }
+
+  private static Object objectMethod(Object proxy, String name, Object[] args) {
+    switch (name) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "fake@" + Integer.toHexString(System.identityHashCode(proxy));
+      default:
+        return null;
+    }
+  }
+
+  /** An activity and its binding, which delivers results to its listeners the way the embedding does. */
+  private static final class FakeActivityBinding {
+    final Activity activity;
+    final List<PluginRegistry.ActivityResultListener> listeners = new CopyOnWriteArrayList<>();
+    final ActivityPluginBinding binding;
+
+    FakeActivityBinding(Activity activity) {
+      this.activity = activity;
+      this.binding = (ActivityPluginBinding) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] { ActivityPluginBinding.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "getActivity":
+                return activity;
+              case "addActivityResultListener":
+                listeners.add((PluginRegistry.ActivityResultListener) args[0]);
+                return null;
+              case "removeActivityResultListener":
+                listeners.remove(args[0]);
+                return null;
+              default:
+                return objectMethod(proxy, method.getName(), args);
+            }
+          });
+    }
+
+    void deliver(int requestCode, int resultCode, Intent data) {
+      for (PluginRegistry.ActivityResultListener listener : listeners) {
+        listener.onActivityResult(requestCode, resultCode, data);
+      }
+    }
+  }
+
+  /** Records how a channel call completed. */
+  private static final class RecordingResult implements MethodChannel.Result {
+    volatile boolean completed;
+    volatile Object value;
+    volatile String errorCode;
+
+    @Override
+    public void success(Object result) {
+      value = result;
+      completed = true;
+    }
+
+    @Override
+    public void error(String errorCode, String errorMessage, Object errorDetails) {
+      this.errorCode = errorCode;
+      completed = true;
+    }
+
+    @Override
+    public void notImplemented() {
+      errorCode = "notImplemented";
+      completed = true;
+    }
+  }
+}
@@ -16,10 +16,13 @@
 import 'dart:async';
 
 import 'package:built_value/standard_json_plugin.dart';
+import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 
 import 'models.dart';
+import 'src/compact_result_codec.dart';
 import 'src/serializers.dart';
+import 'src/verification_argument_codec.dart';
 
 typedef CardEntryCancelCallback = void Function();
 typedef CardEntryCompleteCallback = void Function();
@@ -40,17 +43,38 @@ typedef ApplePayCompleteCallback = void Function();
 typedef BuyerVerificationSuccessCallback = void Function(
     BuyerVerificationDetails result);
 typedef BuyerVerificationErrorCallback = void Function(ErrorInfo errorInfo);
+typedef BuyerVerificationCardDetailsCallback = void Function(
+    CardDetails result);
 
 typedef MasterCardNonceRequestSuccessCallback = void Function(
     CardDetails result);
 typedef MasterCardNonceRequestFailureCallback = void Function(
     ErrorInfo errorInfo);
 
+/// How card and nonce results are sent from the native layer.
+enum ResultEncoding {
+  /// Nested maps over the method channel. This is the default.
+  map,
+
+  /// A single binary message per result (Android only).
+  compact,
+}
+
 // ignore: avoid_classes_with_only_static_members
 class InAppPayments {
-  static final MethodChannel _channel =
-      const MethodChannel('square_in_app_payments')
-        ..setMethodCallHandler(_nativeCallHandler);
+  static final MethodChannel _channel = _createChannel();
+
+  /// Carries the calls that do not touch activities. On Android they run on a
+  /// background task queue instead of the platform thread; iOS has no such
+  /// channel and handles them on [_channel].
+  static final MethodChannel _bookkeepingChannel =
+      defaultTargetPlatform == TargetPlatform.android
+          ? const MethodChannel('square_in_app_payments/background')
+          : _channel;
+
+  static const EventChannel _eventChannel =
+      EventChannel('square_in_app_payments/events');
+  static int _nextEventSequence = 0;
 
   static final _standardSerializers =
       (serializers.toBuilder()..addPlugin(StandardJsonPlugin())).build();
@@ -59,6 +83,15 @@ class InAppPayments {
   static CardEntryCardNonceRequestSuccessCallback?
       _cardEntryCardNonceRequestSuccessCallback;
   static CardEntryCompleteCallback? _cardEntryCompleteCallback;
+  // Key of the zone value holding the correlation ID of the card whose
+  // onCardNonceRequestSuccess callback is running, so that completeCardEntry
+  // and showCardNonceProcessingError called from it, or from work it starts,
+  // answer that card even after another one arrives.
+  static final Object _cardEntryCorrelationIdKey = Object();
+  // Set when a card acceptance rule finished card entry without waiting for
+  // completeCardEntry; the completion may then arrive before that call.
+  static bool _cardEntryAcceptedNatively = false;
+  static bool _cardEntryCompletedNatively = false;
 
   static GooglePayNonceRequestSuccessCallback?
       _googlePayNonceRequestSuccessCallback;
@@ -74,12 +107,46 @@ class InAppPayments {
 
   static BuyerVerificationSuccessCallback? _buyerVerificationSuccessCallback;
   static BuyerVerificationErrorCallback? _buyerVerificationErrorCallback;
+  static BuyerVerificationCardDetailsCallback?
+      _buyerVerificationCardDetailsCallback;
 
   static MasterCardNonceRequestSuccessCallback?
       _masterCardNonceRequestSuccessCallback;
   static MasterCardNonceRequestFailureCallback?
       _masterCardNonceRequestFailureCallback;
 
+  static MethodChannel _createChannel() {
+    var channel = const MethodChannel('square_in_app_payments',
+        StandardMethodCodec(VerificationArgumentCodec()))
+      ..setMethodCallHandler(_nativeCallHandler);
+    // Android delivers flow events over the event stream, iOS calls
+    // _nativeCallHandler directly.
+    if (defaultTargetPlatform == TargetPlatform.android) {
+      _eventChannel.receiveBroadcastStream().listen(_onFlowEvents);
+    }
+    return channel;
+  }
+
+  /// Handles one batch of `[sequence, method, arguments]` events.
+  static void _onFlowEvents(dynamic batch) {
+    for (List<dynamic> event in batch) {
+      int sequence = event[0];
+      // Only events that neither end a flow nor are waited on are dropped,
+      // so a gap leaves no flow hanging.
+      if (sequence != _nextEventSequence && kDebugMode) {
+        debugPrint('square_in_app_payments: missed flow events '
+            '$_nextEventSequence to ${sequence - 1}');
+      }
+      _nextEventSequence = sequence + 1;
+      String method = event[1];
+      if (method == 'compactResult') {
+        _compactResultHandler(ByteData.sublistView(event[2] as Uint8List));
+      } else {
+        _nativeCallHandler(MethodCall(method, event[2]));
+      }
+    }
+  }
+
   static Future<dynamic> _nativeCallHandler(MethodCall call) async {
     try {
       switch (call.method) {
@@ -89,15 +156,21 @@ class InAppPayments {
           }
           break;
         case 'cardEntryDidObtainCardDetails':
+          String? correlationId = call.arguments['correlationId'];
+          _onCardEntryCardDetails(
+              call.arguments['acceptedNatively'] == true);
           if (_cardEntryCardNonceRequestSuccessCallback != null) {
             var result = _standardSerializers.deserializeWith(
                 CardDetails.serializer, call.arguments)!;
-            _cardEntryCardNonceRequestSuccessCallback!(result);
+            _runForCardEntry(correlationId,
+                () => _cardEntryCardNonceRequestSuccessCallback!(result));
           }
           break;
         case 'cardEntryComplete':
           if (_cardEntryCompleteCallback != null) {
             _cardEntryCompleteCallback!();
+          } else if (_cardEntryAcceptedNatively) {
+            _cardEntryCompletedNatively = true;
           }
           break;
         case 'onGooglePayCanceled':
@@ -145,6 +218,13 @@ class InAppPayments {
             _buyerVerificationSuccessCallback!(result);
           }
           break;
+        case 'onBuyerVerificationCardDetails':
+          if (_buyerVerificationCardDetailsCallback != null) {
+            var result = _standardSerializers.deserializeWith(
+                CardDetails.serializer, call.arguments)!;
+            _buyerVerificationCardDetailsCallback!(result);
+          }
+          break;
         case 'onBuyerVerificationError':
           if (_buyerVerificationErrorCallback != null) {
             var errorInfo = _standardSerializers.deserializeWith(
@@ -176,12 +256,131 @@ class InAppPayments {
     return false;
   }
 
+  static void _compactResultHandler(ByteData message) {
+    try {
+      var result = CompactResult.decode(message);
+      switch (result.method) {
+        case 'cardEntryDidObtainCardDetails':
+          _onCardEntryCardDetails(result.acceptedNatively);
+          if (_cardEntryCardNonceRequestSuccessCallback != null) {
+            _runForCardEntry(
+                result.correlationId,
+                () => _cardEntryCardNonceRequestSuccessCallback!(
+                    result.toCardDetails()));
+          }
+          break;
+        case 'onGooglePayNonceRequestSuccess':
+          if (_googlePayNonceRequestSuccessCallback != null) {
+            _googlePayNonceRequestSuccessCallback!(result.toCardDetails());
+          }
+          break;
+        case 'onBuyerVerificationSuccess':
+          if (_buyerVerificationSuccessCallback != null) {
+            _buyerVerificationSuccessCallback!(
+                result.toBuyerVerificationDetails());
+          }
+          break;
+        case 'onBuyerVerificationCardDetails':
+          if (_buyerVerificationCardDetailsCallback != null) {
+            _buyerVerificationCardDetailsCallback!(result.toCardDetails());
+          }
+          break;
+      }
+    } on Exception catch (ex) {
+      print(ex);
+    }
+  }
+
+  static Future setResultEncoding(ResultEncoding encoding) async {
+    var params = <String, dynamic>{
+      'encoding': encoding.name,
+    };
+    await _bookkeepingChannel.invokeMethod('setResultEncoding', params);
+  }
+
+  /// Per-method invocation counts, errors and platform-thread latency
+  /// (Android only).
+  static Future<Map<String, dynamic>> getPluginMetrics() async {
+    var metrics = await _bookkeepingChannel
+        .invokeMapMethod<String, dynamic>('getPluginMetrics');
+    return metrics ?? <String, dynamic>{};
+  }
+
+  /// Stage and end-to-end latency of the card entry, buyer verification and
+  /// Google Pay flows, per outcome (Android only).
+  static Future<Map<String, dynamic>> getFlowTimings() async {
+    var timings = await _bookkeepingChannel
+        .invokeMapMethod<String, dynamic>('getFlowTimings');
+    return timings ?? <String, dynamic>{};
+  }
+
+  /// Time spent attaching the plugin and creating its card entry and Google
+  /// Pay modules, per phase (Android only).
+  static Future<Map<String, dynamic>> getStartupTimings() async {
+    var timings = await _bookkeepingChannel
+        .invokeMapMethod<String, dynamic>('getStartupTimings');
+    return timings ?? <String, dynamic>{};
+  }
+
+  /// Number of errors reported so far, keyed by debug code (Android only).
+  static Future<Map<String, int>> getErrorCounts() async {
+    var counts = await _bookkeepingChannel
+        .invokeMapMethod<String, int>('getErrorCounts');
+    return counts ?? <String, int>{};
+  }
+
+  /// The last payment flow events recorded by the native layer, and the
+  /// events recorded when a flow last failed (Android only).
+  static Future<Map<String, dynamic>> getFlightRecorderDump() async {
+    var dump = await _bookkeepingChannel
+        .invokeMapMethod<String, dynamic>('getFlightRecorderDump');
+    return dump ?? <String, dynamic>{};
+  }
+
+  /// Starts recording the plugin's channel traffic to a redacted trace for
+  /// replay, and returns the path of the trace (Android only).
+  static Future<String?> startChannelRecording({int? maxBytes}) async {
+    var params = <String, dynamic>{
+      'maxBytes': maxBytes,
+    };
+    return await _bookkeepingChannel.invokeMethod<String>(
+        'startChannelRecording', params);
+  }
+
+  /// Stops recording the plugin's channel traffic and returns the path, the
+  /// number of records and the size of the trace (Android only).
+  static Future<Map<String, dynamic>?> stopChannelRecording() async {
+    return await _bookkeepingChannel
+        .invokeMapMethod<String, dynamic>('stopChannelRecording');
+  }
+
+  /// Does the first-use work of card entry and Google Pay in the background
+  /// and returns one entry per warm-up step (Android only).
+  static Future<Map<String, dynamic>> prewarm(
+      {int? googlePayEnvironment}) async {
+    var params = <String, dynamic>{
+      'googlePayEnvironment': googlePayEnvironment,
+    };
+    var report =
+        await _channel.invokeMapMethod<String, dynamic>('prewarm', params);
+    return report ?? <String, dynamic>{};
+  }
+
+  /// Turns the plugin's Systrace / Perfetto trace sections on or off
+  /// (Android only).
+  static Future setTracingEnabled(bool enabled) async {
+    var params = <String, dynamic>{
+      'enabled': enabled,
+    };
+    await _bookkeepingChannel.invokeMethod('setTracingEnabled', params);
+  }
+
   static Future setSquareApplicationId(String applicationId) async {
     assert(applicationId.isNotEmpty, 'application should not be empty.');
     var params = <String, dynamic>{
       'applicationId': applicationId,
     };
-    await _channel.invokeMethod('setApplicationId', params);
+    await _bookkeepingChannel.invokeMethod('setApplicationId', params);
   }
 
   static Future startCardEntryFlow(
@@ -206,30 +405,169 @@ class InAppPayments {
     await _channel.invokeMethod('startGiftCardEntryFlow');
   }
 
+  static void _runForCardEntry(String? correlationId, void Function() body) {
+    runZoned(body, zoneValues: {_cardEntryCorrelationIdKey: correlationId});
+  }
+
+  /// [acceptedNatively] is only sent by Android, when a card acceptance rule
+  /// accepted the card and card entry is already closing.
+  static void _onCardEntryCardDetails(bool acceptedNatively) {
+    _cardEntryAcceptedNatively = acceptedNatively;
+    if (_cardEntryAcceptedNatively) {
+      _cardEntryCompleteCallback = null;
+      _cardEntryCompletedNatively = false;
+    }
+  }
+
+  /// Closes card entry for the card passed to onCardNonceRequestSuccess. Call
+  /// it from that callback or from work the callback starts; on Android a call
+  /// made elsewhere fails with a stale completion error.
   static Future completeCardEntry(
       {required CardEntryCompleteCallback onCardEntryComplete}) async {
+    if (_cardEntryAcceptedNatively) {
+      if (_cardEntryCompletedNatively) {
+        _cardEntryCompletedNatively = false;
+        onCardEntryComplete();
+      } else {
+        _cardEntryCompleteCallback = onCardEntryComplete;
+      }
+      return;
+    }
     _cardEntryCompleteCallback = onCardEntryComplete;
-    await _channel.invokeMethod('completeCardEntry');
+    var params = <String, dynamic>{
+      'correlationId': Zone.current[_cardEntryCorrelationIdKey],
+    };
+    try {
+      await _bookkeepingChannel.invokeMethod('completeCardEntry', params);
+    } on PlatformException catch (ex) {
+      throw InAppPaymentsException(
+          ex.code,
+          ex.message,
+          ex.details[InAppPaymentsException.debugCodeKey],
+          ex.details[InAppPaymentsException.debugMessageKey]);
+    }
   }
 
+  /// Shows [errorMessage] for the card passed to onCardNonceRequestSuccess,
+  /// under the same conditions as [completeCardEntry].
   static Future showCardNonceProcessingError(String errorMessage) async {
+    if (_cardEntryAcceptedNatively) {
+      return;
+    }
     var params = <String, dynamic>{
+      'correlationId': Zone.current[_cardEntryCorrelationIdKey],
       'errorMessage': errorMessage,
     };
-    await _channel.invokeMethod('showCardNonceProcessingError', params);
+    try {
+      await _bookkeepingChannel.invokeMethod(
+          'showCardNonceProcessingError', params);
+    } on PlatformException catch (ex) {
+      throw InAppPaymentsException(
+          ex.code,
+          ex.message,
+          ex.details[InAppPaymentsException.debugCodeKey],
+          ex.details[InAppPaymentsException.debugMessageKey]);
+    }
+  }
+
+  /// Sets how long card entry waits for [completeCardEntry] or
+  /// [showCardNonceProcessingError] (Android only). Does nothing on other
+  /// platforms, where card entry waits indefinitely.
+  static Future setCardNonceProcessingDeadline(Duration deadline,
+      {String? fallbackErrorMessage}) async {
+    assert(!deadline.isNegative, 'deadline should not be negative.');
+    if (defaultTargetPlatform != TargetPlatform.android) {
+      return;
+    }
+    var params = <String, dynamic>{
+      'deadlineMs': deadline.inMilliseconds,
+      'fallbackErrorMessage': fallbackErrorMessage,
+    };
+    await _bookkeepingChannel.invokeMethod(
+        'setCardNonceProcessingDeadline', params);
   }
 
-  static Future initializeGooglePay(
-      String squareLocationId, int environment) async {
+  /// Sets rules that accept or reject entered cards in the native layer
+  /// (Android only). On other platforms an empty list does nothing and any
+  /// rule throws an [InAppPaymentsException] with debug code
+  /// `fl_card_acceptance_rules_unsupported`, since ignoring a reject rule
+  /// would let the card through.
+  static Future setCardAcceptanceRules(List<CardAcceptanceRule> rules) async {
+    if (defaultTargetPlatform != TargetPlatform.android) {
+      if (rules.isEmpty) {
+        return;
+      }
+      throw InAppPaymentsException(
+          'USAGE_ERROR',
+          'Card acceptance rules are only supported on Android.',
+          'fl_card_acceptance_rules_unsupported',
+          'setCardAcceptanceRules is only supported on Android.');
+    }
+    var params = <String, dynamic>{
+      'rules': rules.map(_cardAcceptanceRuleToMap).toList(),
+    };
+    try {
+      await _bookkeepingChannel.invokeMethod('setCardAcceptanceRules', params);
+    } on PlatformException catch (ex) {
+      throw InAppPaymentsException(
+          ex.code,
+          ex.message,
+          ex.details[InAppPaymentsException.debugCodeKey],
+          ex.details[InAppPaymentsException.debugMessageKey]);
+    }
+  }
+
+  static Map<String, dynamic> _cardAcceptanceRuleToMap(
+      CardAcceptanceRule rule) {
+    return <String, dynamic>{
+      'action': rule.accept ? 'accept' : 'reject',
+      'errorMessage': rule.errorMessage,
+      'brands': rule.brands
+          ?.map((b) => _standardSerializers.serializeWith(Brand.serializer, b))
+          .toList(),
+      'types': rule.types
+          ?.map((t) =>
+              _standardSerializers.serializeWith(CardType.serializer, t))
+          .toList(),
+      'prepaidTypes': rule.prepaidTypes
+          ?.map((t) => _standardSerializers.serializeWith(
+              CardPrepaidType.serializer, t))
+          .toList(),
+      'postalCodePrefixes': rule.postalCodePrefixes,
+    };
+  }
+
+  static Future initializeGooglePay(String squareLocationId, int environment,
+      {Duration readinessCacheTtl = const Duration(minutes: 5)}) async {
     assert(
         squareLocationId.isNotEmpty, 'squareLocationId should not be empty.');
     var params = <String, dynamic>{
       'environment': environment,
       'squareLocationId': squareLocationId,
+      'readinessCacheTtlMs': readinessCacheTtl.inMilliseconds,
     };
     await _channel.invokeMethod('initializeGooglePay', params);
   }
 
+  /// Sets the retry and deadline policy for exchanging the Google Pay token
+  /// for a nonce (Android only). Does nothing on other platforms, which have
+  /// no Google Pay.
+  static Future setGooglePayNonceExchangeOptions(
+      {int maxAttempts = 3,
+      Duration deadline = const Duration(seconds: 30)}) async {
+    assert(maxAttempts > 0, 'maxAttempts should be positive.');
+    assert(!deadline.isNegative, 'deadline should not be negative.');
+    if (defaultTargetPlatform != TargetPlatform.android) {
+      return;
+    }
+    var params = <String, dynamic>{
+      'maxAttempts': maxAttempts,
+      'deadlineMs': deadline.inMilliseconds,
+    };
+    await _bookkeepingChannel.invokeMethod(
+        'setGooglePayNonceExchangeOptions', params);
+  }
+
   static Future<bool> get canUseGooglePay async {
     try {
       return await (_channel.invokeMethod('canUseGooglePay'));
@@ -273,6 +611,42 @@ class InAppPayments {
     }
   }
 
+  /// Initializes Google Pay if needed, checks readiness, shows the payment
+  /// sheet and exchanges the token in one call (Android only). Completes with
+  /// the card details, or with null when the buyer cancels.
+  static Future<CardDetails?> googlePayCheckout(
+      {required String squareLocationId,
+      required int environment,
+      required String price,
+      required String currencyCode,
+      required int priceStatus}) async {
+    assert(
+        squareLocationId.isNotEmpty, 'squareLocationId should not be empty.');
+    assert(price.isNotEmpty, 'price should not be empty.');
+    assert(currencyCode.isNotEmpty, 'currencyCode should not be empty.');
+    var params = <String, dynamic>{
+      'squareLocationId': squareLocationId,
+      'environment': environment,
+      'price': price,
+      'currencyCode': currencyCode,
+      'priceStatus': priceStatus,
+    };
+    try {
+      var result = await _channel.invokeMethod('googlePayCheckout', params);
+      if (result == null) {
+        return null;
+      }
+      return _standardSerializers.deserializeWith(
+          CardDetails.serializer, result);
+    } on PlatformException catch (ex) {
+      throw InAppPaymentsException(
+          ex.code,
+          ex.message,
+          ex.details[InAppPaymentsException.debugCodeKey],
+          ex.details[InAppPaymentsException.debugMessageKey]);
+    }
+  }
+
   static Future initializeApplePay(String applePayMerchantId) async {
     assert(applePayMerchantId.isNotEmpty,
         'applePayMerchantId should not be empty.');
@@ -342,20 +716,26 @@ class InAppPayments {
       required Money money,
       required String squareLocationId,
       required Contact contact,
-      bool collectPostalCode = true}) async {
+      bool collectPostalCode = true,
+      BuyerVerificationCardDetailsCallback? onCardDetailsObtained}) async {
     _buyerVerificationSuccessCallback = onBuyerVerificationSuccess;
     _buyerVerificationErrorCallback = onBuyerVerificationFailure;
+    _buyerVerificationCardDetailsCallback = onCardDetailsObtained;
     _cardEntryCancelCallback = onCardEntryCancel;
-    var params = <String, dynamic>{
-      'buyerAction': buyerAction,
-      'money': _standardSerializers.serializeWith(Money.serializer, money),
-      'contact':
-          _standardSerializers.serializeWith(Contact.serializer, contact),
-      'squareLocationId': squareLocationId,
-      'collectPostalCode': collectPostalCode,
-    };
-    await _channel.invokeMethod(
-        'startCardEntryFlowWithBuyerVerification', params);
+    var params = _verificationParams(buyerAction, money, contact)
+      ..['squareLocationId'] = squareLocationId
+      ..['collectPostalCode'] = collectPostalCode
+      ..['pipelineNonce'] = onCardDetailsObtained != null;
+    try {
+      await _channel.invokeMethod(
+          'startCardEntryFlowWithBuyerVerification', params);
+    } on PlatformException catch (ex) {
+      throw InAppPaymentsException(
+          ex.code,
+          ex.message,
+          ex.details[InAppPaymentsException.debugCodeKey],
+          ex.details[InAppPaymentsException.debugMessageKey]);
+    }
   }
 
   static Future startBuyerVerificationFlow(
@@ -368,15 +748,36 @@ class InAppPayments {
       required String paymentSourceId}) async {
     _buyerVerificationSuccessCallback = onBuyerVerificationSuccess;
     _buyerVerificationErrorCallback = onBuyerVerificationFailure;
-    var params = <String, dynamic>{
+    _buyerVerificationCardDetailsCallback = null;
+    var params = _verificationParams(buyerAction, money, contact)
+      ..['squareLocationId'] = squareLocationId
+      ..['paymentSourceId'] = paymentSourceId;
+    try {
+      await _channel.invokeMethod('startBuyerVerificationFlow', params);
+    } on PlatformException catch (ex) {
+      throw InAppPaymentsException(
+          ex.code,
+          ex.message,
+          ex.details[InAppPaymentsException.debugCodeKey],
+          ex.details[InAppPaymentsException.debugMessageKey]);
+    }
+  }
+
+  // Android decodes typed values directly; iOS still expects maps.
+  static Map<String, dynamic> _verificationParams(
+      String buyerAction, Money money, Contact contact) {
+    if (defaultTargetPlatform == TargetPlatform.android) {
+      return <String, dynamic>{
+        'buyerAction': BuyerActionArgument(buyerAction, money),
+        'contact': contact,
+      };
+    }
+    return <String, dynamic>{
       'buyerAction': buyerAction,
       'money': _standardSerializers.serializeWith(Money.serializer, money),
       'contact':
           _standardSerializers.serializeWith(Contact.serializer, contact),
-      'squareLocationId': squareLocationId,
-      'paymentSourceId': paymentSourceId,
     };
-    await _channel.invokeMethod('startBuyerVerificationFlow', params);
   }
 
   static Future setIOSCardEntryTheme(IOSTheme theme) async {
@@ -119,6 +119,33 @@ class ApplePayPaymentType extends EnumClass {
       _$applePayPaymentTypeValueOf(name);
 }
 
+/// A card acceptance rule for [InAppPayments.setCardAcceptanceRules]. A rule
+/// matches a card when every criterion it sets matches; a criterion left
+/// null matches every card.
+class CardAcceptanceRule {
+  final bool accept;
+  final String? errorMessage;
+  final Set<Brand>? brands;
+  final Set<CardType>? types;
+  final Set<CardPrepaidType>? prepaidTypes;
+
+  /// Postal code prefixes, compared ignoring case and spaces.
+  final List<String>? postalCodePrefixes;
+
+  const CardAcceptanceRule.accept(
+      {this.brands, this.types, this.prepaidTypes, this.postalCodePrefixes})
+      : accept = true,
+        errorMessage = null;
+
+  const CardAcceptanceRule.reject(
+      {required String this.errorMessage,
+      this.brands,
+      this.types,
+      this.prepaidTypes,
+      this.postalCodePrefixes})
+      : accept = false;
+}
+
 abstract class CardDetails implements Built<CardDetails, CardDetailsBuilder> {
   String get nonce;
   Card get card;
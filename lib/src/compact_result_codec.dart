@@ -0,0 +1,146 @@
+/*
+ Copyright 2018 Square Inc.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+import 'dart:convert';
+import 'dart:typed_data';
+
+import '../models.dart';
+
+/// Decodes results written by the Android `CompactCardDetailsEncoder`.
+/// The layout and the constant tables below must stay in sync with it.
+class CompactResult {
+  static const int _version = 1;
+
+  static const int _flagHasCard = 1;
+  static const int _flagHasCorrelationId = 1 << 1;
+  static const int _flagHasToken = 1 << 2;
+  static const int _flagHasPostalCode = 1 << 3;
+  static const int _flagAcceptedNatively = 1 << 4;
+
+  static const List<String> _methods = [
+    'cardEntryDidObtainCardDetails',
+    'onGooglePayNonceRequestSuccess',
+    'onBuyerVerificationSuccess',
+    'onBuyerVerificationCardDetails',
+  ];
+
+  static const List<Brand> _brands = [
+    Brand.otherBrand,
+    Brand.visa,
+    Brand.mastercard,
+    Brand.americanExpress,
+    Brand.discover,
+    Brand.discoverDiners,
+    Brand.jcb,
+    Brand.chinaUnionPay,
+    Brand.squareGiftCard,
+  ];
+
+  static const List<CardType> _types = [
+    CardType.debit,
+    CardType.credit,
+    CardType.unknown,
+  ];
+
+  static const List<CardPrepaidType> _prepaidTypes = [
+    CardPrepaidType.prepaid,
+    CardPrepaidType.notPrepaid,
+    CardPrepaidType.unknown,
+  ];
+
+  final String method;
+  final String nonce;
+  final Card? card;
+  final String? correlationId;
+  final String? token;
+  final bool acceptedNatively;
+
+  CompactResult._(this.method, this.nonce, this.card, this.correlationId,
+      this.token, this.acceptedNatively);
+
+  factory CompactResult.decode(ByteData data) {
+    var reader = _Reader(data);
+    var version = reader.uint8();
+    if (version != _version) {
+      throw FormatException('unsupported compact result version $version');
+    }
+    var method = _methods[reader.uint8()];
+    var flags = reader.uint8();
+    var nonce = reader.string();
+    String? correlationId;
+    if (flags & _flagHasCorrelationId != 0) {
+      correlationId = reader.string();
+    }
+    Card? card;
+    if (flags & _flagHasCard != 0) {
+      var brand = _brands[reader.uint8()];
+      var lastFourDigits = reader.string();
+      var expirationMonth = reader.uint8();
+      var expirationYear = reader.uint16();
+      var type = _types[reader.uint8()];
+      var prepaidType = _prepaidTypes[reader.uint8()];
+      var postalCode =
+          flags & _flagHasPostalCode != 0 ? reader.string() : null;
+      card = Card((b) => b
+        ..brand = brand
+        ..lastFourDigits = lastFourDigits
+        ..expirationMonth = expirationMonth
+        ..expirationYear = expirationYear
+        ..type = type
+        ..prepaidType = prepaidType
+        ..postalCode = postalCode);
+    }
+    var token = flags & _flagHasToken != 0 ? reader.string() : null;
+    return CompactResult._(method, nonce, card, correlationId, token,
+        flags & _flagAcceptedNatively != 0);
+  }
+
+  CardDetails toCardDetails() => CardDetails((b) => b
+    ..nonce = nonce
+    ..card.replace(card!));
+
+  BuyerVerificationDetails toBuyerVerificationDetails() =>
+      BuyerVerificationDetails((b) {
+        b
+          ..nonce = nonce
+          ..token = token;
+        if (card != null) {
+          b.card.replace(card!);
+        }
+      });
+}
+
+class _Reader {
+  final ByteData _data;
+  int _offset = 0;
+
+  _Reader(this._data);
+
+  int uint8() => _data.getUint8(_offset++);
+
+  int uint16() {
+    var value = _data.getUint16(_offset, Endian.little);
+    _offset += 2;
+    return value;
+  }
+
+  String string() {
+    var length = uint16();
+    var bytes =
+        _data.buffer.asUint8List(_data.offsetInBytes + _offset, length);
+    _offset += length;
+    return utf8.decode(bytes);
+  }
+}
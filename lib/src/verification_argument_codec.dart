@@ -0,0 +1,63 @@
+/*
+ Copyright 2018 Square Inc.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+import 'package:flutter/services.dart';
+
+import '../models.dart';
+
+/// A buyer action together with the money it applies to.
+class BuyerActionArgument {
+  final String action;
+  final Money money;
+
+  const BuyerActionArgument(this.action, this.money);
+}
+
+/// Writes [Money], [Contact] and [BuyerActionArgument] as typed values that
+/// the Android `VerificationArgumentCodec` decodes without intermediate maps.
+/// The type bytes and field order must stay in sync with it.
+class VerificationArgumentCodec extends StandardMessageCodec {
+  static const int _money = 128;
+  static const int _contact = 129;
+  static const int _buyerAction = 130;
+
+  const VerificationArgumentCodec();
+
+  @override
+  void writeValue(WriteBuffer buffer, Object? value) {
+    if (value is Money) {
+      buffer.putUint8(_money);
+      writeValue(buffer, value.amount);
+      writeValue(buffer, value.currencyCode);
+    } else if (value is Contact) {
+      buffer.putUint8(_contact);
+      writeValue(buffer, value.givenName);
+      writeValue(buffer, value.familyName);
+      writeValue(buffer, value.addressLines?.toList());
+      writeValue(buffer, value.city);
+      writeValue(buffer, value.countryCode);
+      writeValue(buffer, value.email);
+      writeValue(buffer, value.phone);
+      writeValue(buffer, value.postalCode);
+      writeValue(buffer, value.region);
+    } else if (value is BuyerActionArgument) {
+      buffer.putUint8(_buyerAction);
+      writeValue(buffer, value.action);
+      writeValue(buffer, value.money);
+    } else {
+      super.writeValue(buffer, value);
+    }
+  }
+}